@@ -2,8 +2,10 @@ package com.pocketllm;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class PocketllmApplication {
 
 	public static void main(String[] args) {
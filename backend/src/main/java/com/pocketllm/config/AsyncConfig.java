@@ -0,0 +1,60 @@
+package com.pocketllm.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+
+    // Left to the application after a generation times out, to save the reply and answer
+    private static final Duration RESPONSE_HEADROOM = Duration.ofSeconds(10);
+
+    @Value("${llm.client.timeout:60s}")
+    private Duration llmTimeout;
+
+    @Value("${llm.scheduler.max-queue-wait:30s}")
+    private Duration maxQueueWait;
+
+    /**
+     * Small fixed pool for the database stages of the chat pipeline (ownership check, cache
+     * lookup, history writes). Generation itself is non-blocking, so these threads never wait
+     * on the model and a handful of them can serve hundreds of in-flight requests.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor llmExecutor(@Value("${llm.executor.threads:4}") int threads,
+                                              @Value("${llm.executor.queue-capacity:256}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("llm-");
+        return executor;
+    }
+
+    /**
+     * Separate pool for startup jobs that walk whole tables (content dedup, stats backfill, semantic
+     * index rebuild), so they never take llmExecutor threads or queue space from chat requests.
+     * One thread runs them one after another.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor backgroundExecutor(@Value("${background.executor.threads:1}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("background-");
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        // Async responses (CompletableFuture, SSE streams) stay open for as long as a request may wait
+        // for a slot plus generate, so the scheduler's own deadlines always fire first
+        configurer.setDefaultTimeout(maxQueueWait.plus(llmTimeout).plus(RESPONSE_HEADROOM).toMillis());
+    }
+}
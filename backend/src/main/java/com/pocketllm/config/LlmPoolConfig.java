@@ -0,0 +1,38 @@
+package com.pocketllm.config;
+
+import com.pocketllm.llm.LlmBackendPool;
+import com.pocketllm.llm.LlmEndpoint;
+import com.pocketllm.llm.LlmPoolProperties;
+import com.pocketllm.util.HttpClientUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+@Configuration
+@EnableConfigurationProperties(LlmPoolProperties.class)
+public class LlmPoolConfig {
+
+    @Bean
+    public LlmBackendPool llmBackendPool(LlmPoolProperties properties,
+                                         @Value("${llm.client.url:http://localhost:8081/v1/chat/completions}") String llmUrl,
+                                         HttpClientUtil httpClientUtil,
+                                         MeterRegistry meterRegistry) {
+        List<LlmEndpoint> endpoints = properties.getEndpoints().isEmpty()
+                ? List.of(new LlmEndpoint(llmUrl, 1, properties.getDefaultMaxConcurrency()))
+                : properties.getEndpoints().stream()
+                        .map(e -> new LlmEndpoint(e.getUrl(), e.getWeight(), e.getMaxConcurrency()))
+                        .toList();
+        return new LlmBackendPool(endpoints,
+                properties.getStrategy(),
+                httpClientUtil,
+                properties.getHealthPath(),
+                properties.getPropsPath(),
+                properties.getHealthTimeout(),
+                properties.getUnhealthyThreshold(),
+                meterRegistry);
+    }
+}
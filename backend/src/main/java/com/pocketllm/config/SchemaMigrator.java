@@ -0,0 +1,161 @@
+package com.pocketllm.config;
+
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned schema migrations: classpath:db/migration/V{version}__{description}.sql scripts are
+ * applied in version order at startup, each in its own transaction, and recorded in schema_version
+ * with a checksum. Scripts only add what entities cannot express, such as indexes, so they run
+ * right after the EntityManagerFactory is built (Hibernate has created or updated the tables with
+ * ddl-auto=update) and before it is handed to any repository: nothing reads the database, whether
+ * in a @PostConstruct, a warm-up or a request, before the schema is at its latest version.
+ * An applied script that was edited afterwards stops the startup.
+ */
+@Component
+@Slf4j
+public class SchemaMigrator implements BeanPostProcessor {
+
+    private static final String LOCATION = "classpath:db/migration/V*__*.sql";
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+    // Looked up lazily: a post-processor's own dependencies would otherwise miss post-processing
+    private final ObjectProvider<DataSource> dataSource;
+    private boolean migrated;
+
+    public SchemaMigrator(ObjectProvider<DataSource> dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof EntityManagerFactory && !migrated) {
+            migrated = true;
+            try {
+                migrate();
+            } catch (IOException | SQLException e) {
+                throw new IllegalStateException("Schema migration failed", e);
+            }
+        }
+        return bean;
+    }
+
+    private void migrate() throws IOException, SQLException {
+        List<Migration> migrations = findMigrations();
+        try (Connection connection = dataSource.getObject().getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+                        + "version INTEGER PRIMARY KEY, description TEXT NOT NULL, "
+                        + "checksum INTEGER NOT NULL, installed_at TEXT NOT NULL)");
+            }
+            Map<Integer, Long> applied = appliedChecksums(connection);
+            int count = 0;
+            for (Migration migration : migrations) {
+                Long checksum = applied.get(migration.version);
+                if (checksum == null) {
+                    apply(connection, migration);
+                    count++;
+                } else if (checksum != migration.checksum) {
+                    throw new IllegalStateException("Migration V" + migration.version + " (" + migration.description
+                            + ") was changed after it was applied");
+                }
+            }
+            if (count > 0) {
+                log.info("Applied {} schema migrations, now at version {}", count,
+                        migrations.get(migrations.size() - 1).version);
+            }
+        }
+    }
+
+    private List<Migration> findMigrations() throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(LOCATION)) {
+            Matcher name = SCRIPT_NAME.matcher(resource.getFilename());
+            if (!name.matches()) {
+                continue;
+            }
+            try (InputStream in = resource.getInputStream()) {
+                CRC32 crc = new CRC32();
+                crc.update(in.readAllBytes());
+                migrations.add(new Migration(Integer.parseInt(name.group(1)), name.group(2).replace('_', ' '),
+                        crc.getValue(), resource));
+            }
+        }
+        migrations.sort(Comparator.comparingInt(migration -> migration.version));
+        return migrations;
+    }
+
+    private Map<Integer, Long> appliedChecksums(Connection connection) throws SQLException {
+        Map<Integer, Long> applied = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT version, checksum FROM schema_version")) {
+            while (rows.next()) {
+                applied.put(rows.getInt(1), rows.getLong(2));
+            }
+        }
+        return applied;
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            ScriptUtils.executeSqlScript(connection, new EncodedResource(migration.script, StandardCharsets.UTF_8));
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO schema_version (version, description, checksum, installed_at) VALUES (?, ?, ?, ?)")) {
+                insert.setInt(1, migration.version);
+                insert.setString(2, migration.description);
+                insert.setLong(3, migration.checksum);
+                insert.setString(4, LocalDateTime.now().toString());
+                insert.executeUpdate();
+            }
+            connection.commit();
+            log.info("Applied migration V{}: {}", migration.version, migration.description);
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static final class Migration {
+        private final int version;
+        private final String description;
+        private final long checksum;
+        private final Resource script;
+
+        private Migration(int version, String description, long checksum, Resource script) {
+            this.version = version;
+            this.description = description;
+            this.checksum = checksum;
+            this.script = script;
+        }
+    }
+}
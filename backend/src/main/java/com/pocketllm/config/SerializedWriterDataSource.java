@@ -0,0 +1,96 @@
+package com.pocketllm.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands out the single SQLite writer connection to one caller at a time, in arrival order: a fair
+ * semaphore is taken before the connection is fetched and released when it is closed. Writers
+ * queue here instead of spinning on busy_timeout inside SQLite.
+ * Metrics: pocketllm.db.writer.wait, pocketllm.db.writer.queue
+ */
+public class SerializedWriterDataSource extends DelegatingDataSource {
+
+    private final Semaphore permit = new Semaphore(1, true);
+    private final long acquireTimeoutNanos;
+    private final Timer waitTimer;
+
+    public SerializedWriterDataSource(DataSource writer, Duration acquireTimeout, MeterRegistry meterRegistry) {
+        super(writer);
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.waitTimer = Timer.builder("pocketllm.db.writer.wait")
+                .description("Time spent waiting for the SQLite writer connection")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.db.writer.queue", permit, Semaphore::getQueueLength)
+                .description("Callers waiting for the SQLite writer connection")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long started = System.nanoTime();
+        try {
+            if (!permit.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new SQLTransientConnectionException("Timed out after "
+                        + TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos) + " ms waiting for the SQLite writer connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for the SQLite writer connection", e);
+        } finally {
+            waitTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+        try {
+            return releasingOnClose(super.getConnection());
+        } catch (SQLException | RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection(); // SQLite has no users
+    }
+
+    private Connection releasingOnClose(Connection target) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "close":
+                            try {
+                                target.close();
+                            } finally {
+                                if (released.compareAndSet(false, true)) {
+                                    permit.release();
+                                }
+                            }
+                            return null;
+                        default:
+                            try {
+                                return method.invoke(target, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getTargetException();
+                            }
+                    }
+                });
+    }
+}
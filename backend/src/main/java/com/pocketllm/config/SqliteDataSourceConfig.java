@@ -0,0 +1,80 @@
+package com.pocketllm.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.Duration;
+
+/**
+ * SQLite in WAL mode lets readers run in parallel but commits one writer at a time, so connections
+ * are split by role. Read-only transactions (@Transactional(readOnly = true), which includes every
+ * repository finder called outside a transaction) get a connection from a reader pool sized to the
+ * cores; everything else queues for the one writer connection ({@link SerializedWriterDataSource}).
+ * The routing {@link LazyConnectionDataSourceProxy} only fetches a physical connection at the first
+ * statement, once the transaction's read-only flag is known.
+ */
+@Configuration
+public class SqliteDataSourceConfig {
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource sqliteWriterPool(@Value("${spring.datasource.url}") String url,
+                                             @Value("${sqlite.writer.synchronous:NORMAL}") String synchronous,
+                                             @Value("${sqlite.writer.busy-timeout:5000}") int busyTimeout,
+                                             @Value("${sqlite.cache-size:-16000}") int cacheSize,
+                                             @Value("${sqlite.mmap-size:268435456}") long mmapSize) {
+        HikariConfig config = baseConfig("sqlite-writer", url, cacheSize, mmapSize);
+        config.setMaximumPoolSize(1);
+        config.addDataSourceProperty("synchronous", synchronous);
+        config.addDataSourceProperty("busy_timeout", String.valueOf(busyTimeout));
+        return new HikariDataSource(config);
+    }
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource sqliteReaderPool(@Value("${spring.datasource.url}") String url,
+                                             @Value("${sqlite.reader.pool-size:0}") int poolSize,
+                                             @Value("${sqlite.reader.busy-timeout:500}") int busyTimeout,
+                                             @Value("${sqlite.cache-size:-16000}") int cacheSize,
+                                             @Value("${sqlite.mmap-size:268435456}") long mmapSize) {
+        HikariConfig config = baseConfig("sqlite-reader", url, cacheSize, mmapSize);
+        config.setMaximumPoolSize(poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors());
+        config.addDataSourceProperty("busy_timeout", String.valueOf(busyTimeout));
+        return new HikariDataSource(config);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("sqliteWriterPool") DataSource writerPool,
+                                 @Qualifier("sqliteReaderPool") DataSource readerPool,
+                                 @Value("${sqlite.writer.acquire-timeout:30s}") Duration acquireTimeout,
+                                 MeterRegistry meterRegistry) {
+        LazyConnectionDataSourceProxy routing = new LazyConnectionDataSourceProxy(
+                new SerializedWriterDataSource(writerPool, acquireTimeout, meterRegistry));
+        routing.setReadOnlyDataSource(readerPool);
+        // SQLite defaults, so the proxy does not open a connection just to ask for them
+        routing.setDefaultAutoCommit(true);
+        routing.setDefaultTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        return routing;
+    }
+
+    private static HikariConfig baseConfig(String poolName, String url, int cacheSize, long mmapSize) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(poolName);
+        config.setJdbcUrl(url);
+        config.setDriverClassName("org.sqlite.JDBC");
+        config.setMinimumIdle(1);
+        config.addDataSourceProperty("journal_mode", "WAL");
+        config.addDataSourceProperty("cache_size", String.valueOf(cacheSize));
+        // Not a connection property of the driver; set on every new connection instead
+        config.setConnectionInitSql("PRAGMA mmap_size = " + mmapSize);
+        return config;
+    }
+}
@@ -12,6 +12,9 @@ import java.util.List;
 @RequestMapping("/api/admin")
 public class AdminController {
 
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+
     private final AdminService adminService;
 
     public AdminController(AdminService adminService) {
@@ -23,9 +26,25 @@ public class AdminController {
         return ResponseEntity.ok(adminService.getStats());
     }
 
+    /**
+     * Chats with their totals, a page at a time: sort = created (default), lastActivity, messages,
+     * size or tokens; direction = desc (default) or asc
+     */
     @GetMapping("/chats")
-    public ResponseEntity<List<ChatStatsDTO>> getAllChatStats() {
-        return ResponseEntity.ok(adminService.getChatStats());
+    public ResponseEntity<List<ChatStatsDTO>> getAllChatStats(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(defaultValue = "created") String sort,
+            @RequestParam(defaultValue = "desc") String direction) {
+        if (page < 0 || !(direction.equalsIgnoreCase("asc") || direction.equalsIgnoreCase("desc"))) {
+            return ResponseEntity.badRequest().build();
+        }
+        int pageSize = size == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        try {
+            return ResponseEntity.ok(adminService.getChatStats(page, pageSize, sort, direction.equalsIgnoreCase("asc")));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @DeleteMapping("/chats/{chatId}")
@@ -51,7 +51,8 @@ public class ApiKeyController {
         if (request.getKeyName() == null || request.getKeyName().isBlank()) {
             return ResponseEntity.badRequest().build();
         }
-        ApiKeyResponse response = apiKeyService.createKey(userId, request.getKeyName());
+        ApiKeyResponse response = apiKeyService.createKey(userId, request.getKeyName(),
+                Boolean.TRUE.equals(request.getCacheSampledResponses()));
         return ResponseEntity.status(201).body(response);
     }
 
@@ -1,7 +1,11 @@
 
 package com.pocketllm.controller;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.pocketllm.SessionStore;
+import com.pocketllm.model.dto.KeysetPage;
+import com.pocketllm.model.entity.ChatHistory;
 import com.pocketllm.model.request.CreateChatRequest;
 import com.pocketllm.model.request.SaveMessageRequest;
 import com.pocketllm.model.response.CreateChatResponse;
@@ -9,18 +13,38 @@ import com.pocketllm.model.response.SendMessageResponse;
 import com.pocketllm.model.response.ChatSummaryResponse;
 import com.pocketllm.model.response.ChatMessageResponse;
 import com.pocketllm.model.entity.Chat;
+import com.pocketllm.llm.LlmOverloadedException;
+import com.pocketllm.llm.LlmStreamInterruptedException;
 import com.pocketllm.service.ChatService;
+import com.pocketllm.util.KeysetCursor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 
 @RestController
 @RequestMapping("/api/chat")
+@Slf4j
 public class ChatController {
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final String BEFORE_CURSOR_HEADER = "X-Before-Cursor";
+    private static final String AFTER_CURSOR_HEADER = "X-After-Cursor";
+    private static final JsonFactory NDJSON = new JsonFactory();
+
     private final ChatService chatService;
     private final SessionStore sessionStore;
 
@@ -50,78 +74,232 @@ public class ChatController {
     }
 
     /**
-     * Send a message and get LLM response (always triggers LLM)
+     * Send a message and get LLM response (always triggers LLM).
+     * The servlet thread is released while the answer is produced.
      */
     @PostMapping("/message")
-    public ResponseEntity<SendMessageResponse> sendMessage(
+    public CompletableFuture<ResponseEntity<SendMessageResponse>> sendMessage(
             @RequestHeader("X-Session-Id") String sessionId,
             @RequestBody SaveMessageRequest request) {
 
         String userId = sessionStore.getUserId(sessionId);
         if (userId == null) {
-            return ResponseEntity.status(401).build();
+            return CompletableFuture.completedFuture(ResponseEntity.status(401).build());
         }
 
-        try {
-            String llmResponse = chatService.processUserMessage(userId, request.getChatId(), request.getContent());
+        return chatService.processUserMessageAsync(userId, request.getChatId(), request.getContent())
+                .thenApply(llmResponse -> {
+                    SendMessageResponse response = new SendMessageResponse()
+                            .setChatId(request.getChatId())
+                            .setUserMessage(request.getContent())
+                            .setLlmResponse(llmResponse)
+                            .setTimestamp(java.time.LocalDateTime.now());
+                    return ResponseEntity.ok(response);
+                })
+                .exceptionally(ex -> {
+                    if (unwrap(ex) instanceof IllegalArgumentException) {
+                        return ResponseEntity.status(404).build();
+                    }
+                    if (unwrap(ex) instanceof LlmOverloadedException overloaded) {
+                        return ResponseEntity.status(429)
+                                .header(HttpHeaders.RETRY_AFTER, String.valueOf(overloaded.getRetryAfterSeconds()))
+                                .build();
+                    }
+                    throw new CompletionException(unwrap(ex));
+                });
+    }
 
-            SendMessageResponse response = new SendMessageResponse()
-                    .setChatId(request.getChatId())
-                    .setUserMessage(request.getContent())
-                    .setLlmResponse(llmResponse)
-                    .setTimestamp(java.time.LocalDateTime.now());
+    /**
+     * Send a message and stream the LLM response as server-sent events:
+     * "token" events carry each generated piece of text, a final "done" event
+     * carries the complete SendMessageResponse, "error" is sent if the chat is not accessible,
+     * the LLM queue is full (with retryAfter seconds) or the stream broke off mid-answer
+     * (nothing is stored as the answer then)
+     */
+    @PostMapping(value = "/message/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamMessage(
+            @RequestHeader("X-Session-Id") String sessionId,
+            @RequestBody SaveMessageRequest request) {
 
-            return ResponseEntity.ok(response);
-        } catch (IllegalArgumentException ex) {
-            return ResponseEntity.status(404).build();
+        String userId = sessionStore.getUserId(sessionId);
+        if (userId == null) {
+            return ResponseEntity.status(401).build();
         }
+
+        SseEmitter emitter = new SseEmitter();
+        chatService.streamUserMessageAsync(userId, request.getChatId(), request.getContent(),
+                        token -> sendToken(emitter, token))
+                .whenComplete((llmResponse, ex) -> {
+                    try {
+                        if (ex == null) {
+                            SendMessageResponse response = new SendMessageResponse()
+                                    .setChatId(request.getChatId())
+                                    .setUserMessage(request.getContent())
+                                    .setLlmResponse(llmResponse)
+                                    .setTimestamp(java.time.LocalDateTime.now());
+                            emitter.send(SseEmitter.event().name("done").data(response, MediaType.APPLICATION_JSON));
+                            emitter.complete();
+                        } else if (unwrap(ex) instanceof IllegalArgumentException) {
+                            emitter.send(SseEmitter.event().name("error")
+                                    .data(Map.of("message", unwrap(ex).getMessage()), MediaType.APPLICATION_JSON));
+                            emitter.complete();
+                        } else if (unwrap(ex) instanceof LlmOverloadedException overloaded) {
+                            emitter.send(SseEmitter.event().name("error")
+                                    .data(Map.of("message", overloaded.getMessage(),
+                                            "retryAfter", overloaded.getRetryAfterSeconds()), MediaType.APPLICATION_JSON));
+                            emitter.complete();
+                        } else if (unwrap(ex) instanceof LlmStreamInterruptedException interrupted) {
+                            emitter.send(SseEmitter.event().name("error")
+                                    .data(Map.of("message", interrupted.getMessage()), MediaType.APPLICATION_JSON));
+                            emitter.complete();
+                        } else {
+                            emitter.completeWithError(unwrap(ex));
+                        }
+                    } catch (IOException | IllegalStateException sendEx) {
+                        emitter.completeWithError(sendEx);
+                    }
+                });
+        return ResponseEntity.ok(emitter);
+    }
+
+    private void sendToken(SseEmitter emitter, String token) {
+        try {
+            emitter.send(SseEmitter.event().name("token").data(Map.of("token", token), MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException ex) {
+            // Client went away: keep generating so the answer still reaches history and cache
+            log.debug("Dropping token for closed SSE stream: {}", ex.getMessage());
+        }
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
     }
 
     /**
-     * Get all chats for the current session user
+     * Get chats for the current session user, newest first. Without paging parameters all chats
+     * are returned; with limit and/or an opaque before/after cursor (from the X-Before-Cursor and
+     * X-After-Cursor response headers) one page is returned
      */
     @GetMapping("/list")
     public ResponseEntity<List<ChatSummaryResponse>> getChats(
-            @RequestHeader("X-Session-Id") String sessionId) {
+            @RequestHeader("X-Session-Id") String sessionId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after) {
 
         String userId = sessionStore.getUserId(sessionId);
         if (userId == null) {
             return ResponseEntity.status(401).build();
         }
 
-        List<ChatSummaryResponse> chats = chatService.getChatsForUser(userId).stream()
-                .map(chat -> new ChatSummaryResponse()
-                        .setChatId(chat.getChatId())
-                        .setTitle(chat.getTitle())
-                        .setCreatedAt(chat.getCreatedAt()))
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(chats);
+        if (limit == null && before == null && after == null) {
+            return ResponseEntity.ok(chatService.getChatsForUser(userId).stream()
+                    .map(ChatController::toSummary)
+                    .collect(Collectors.toList()));
+        }
+        KeysetCursor beforeCursor;
+        KeysetCursor afterCursor;
+        try {
+            beforeCursor = KeysetCursor.decode(before);
+            afterCursor = KeysetCursor.decode(after);
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (beforeCursor != null && afterCursor != null) {
+            return ResponseEntity.badRequest().build();
+        }
+        KeysetPage<Chat> page = chatService.getChatsPage(userId, beforeCursor, afterCursor, pageSize(limit));
+        return withCursors(page).body(page.getItems().stream()
+                .map(ChatController::toSummary)
+                .collect(Collectors.toList()));
     }
 
     /**
-     * Get chat history by chatId (ownership checked)
+     * Get chat history by chatId (ownership checked), oldest first. Without paging parameters the
+     * whole chat is returned; with limit and/or an opaque before/after cursor (from the
+     * X-Before-Cursor and X-After-Cursor response headers) one page: the latest messages, or the
+     * ones before or after the cursor
      */
     @GetMapping("/history/{chatId}")
     public ResponseEntity<List<ChatMessageResponse>> getChatHistory(
             @RequestHeader("X-Session-Id") String sessionId,
-            @PathVariable String chatId) {
+            @PathVariable String chatId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after) {
 
         String userId = sessionStore.getUserId(sessionId);
         if (userId == null) {
             return ResponseEntity.status(401).build();
         }
 
+        KeysetCursor beforeCursor;
+        KeysetCursor afterCursor;
         try {
-            List<ChatMessageResponse> history = chatService.getChatHistoryForUser(userId, chatId).stream()
-                    .map(msg -> new ChatMessageResponse()
-                            .setContent(msg.getContent())
-                            .setFromUser(msg.isFromUser())
-                            .setTimestamp(msg.getTimestamp()))
-                    .collect(Collectors.toList());
-            return ResponseEntity.ok(history);
+            beforeCursor = KeysetCursor.decode(before);
+            afterCursor = KeysetCursor.decode(after);
         } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (beforeCursor != null && afterCursor != null) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        try {
+            if (limit == null && beforeCursor == null && afterCursor == null) {
+                return ResponseEntity.ok(chatService.getChatHistoryForUser(userId, chatId).stream()
+                        .map(ChatController::toMessage)
+                        .collect(Collectors.toList()));
+            }
+            KeysetPage<ChatHistory> page =
+                    chatService.getChatHistoryPage(userId, chatId, beforeCursor, afterCursor, pageSize(limit));
+            return withCursors(page).body(page.getItems().stream()
+                    .map(ChatController::toMessage)
+                    .collect(Collectors.toList()));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.status(404).build();
+        }
+    }
+
+    /**
+     * Export a whole chat as NDJSON, one message per line, oldest first (ownership checked).
+     * Messages are streamed from the database as they are written, so memory use does not grow
+     * with the length of the chat.
+     */
+    @GetMapping(value = "/history/{chatId}/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportChatHistory(
+            @RequestHeader("X-Session-Id") String sessionId,
+            @PathVariable String chatId) {
+
+        String userId = sessionStore.getUserId(sessionId);
+        if (userId == null) {
+            return ResponseEntity.status(401).build();
+        }
+        if (!chatService.ownsChat(userId, chatId)) {
             return ResponseEntity.status(404).build();
         }
+
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = NDJSON.createGenerator(out)) {
+                json.setRootValueSeparator(null);
+                chatService.forEachMessage(chatId, message -> {
+                    try {
+                        json.writeStartObject();
+                        json.writeStringField("content", message.getDisplayContent());
+                        json.writeBooleanField("fromUser", message.isFromUser());
+                        json.writeStringField("timestamp", message.getTimestamp().toString());
+                        json.writeEndObject();
+                        json.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"chat-" + chatId + ".ndjson\"")
+                .body(body);
     }
 
     /**
@@ -146,6 +324,35 @@ public class ChatController {
     }
 
 
+    private static int pageSize(Integer limit) {
+        return limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    private static ResponseEntity.BodyBuilder withCursors(KeysetPage<?> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getBeforeCursor() != null) {
+            response.header(BEFORE_CURSOR_HEADER, page.getBeforeCursor());
+        }
+        if (page.getAfterCursor() != null) {
+            response.header(AFTER_CURSOR_HEADER, page.getAfterCursor());
+        }
+        return response;
+    }
+
+    private static ChatSummaryResponse toSummary(Chat chat) {
+        return new ChatSummaryResponse()
+                .setChatId(chat.getChatId())
+                .setTitle(chat.getTitle())
+                .setCreatedAt(chat.getCreatedAt());
+    }
+
+    private static ChatMessageResponse toMessage(ChatHistory message) {
+        return new ChatMessageResponse()
+                .setContent(message.getDisplayContent())
+                .setFromUser(message.isFromUser())
+                .setTimestamp(message.getTimestamp());
+    }
+
     /**
      * Clear all query cache (admin endpoint)
      */
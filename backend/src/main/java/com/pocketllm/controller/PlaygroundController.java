@@ -1,11 +1,17 @@
 package com.pocketllm.controller;
 
 import com.pocketllm.llm.LlmClient;
+import com.pocketllm.llm.LlmOverloadedException;
+import com.pocketllm.llm.LlmPriority;
+import com.pocketllm.llm.LlmRequest;
 import com.pocketllm.model.entity.ApiKey;
 import com.pocketllm.model.request.PlaygroundChatRequest;
 import com.pocketllm.model.response.PlaygroundChatResponse;
 import com.pocketllm.repository.ApiKeyRepository;
+import com.pocketllm.service.PlaygroundResponseCache;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -16,6 +22,8 @@ import org.springframework.web.bind.annotation.RestController;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 @RestController
@@ -23,26 +31,39 @@ import java.util.stream.Collectors;
 @Slf4j
 public class PlaygroundController {
 
+    // HIT, MISS (generated and cached) or BYPASS (not cacheable)
+    private static final String CACHE_HEADER = "X-Cache";
+
+    // Sampling ranges llama.cpp accepts with a meaningful result
+    private static final double MAX_TEMPERATURE = 2.0;
+    private static final double MAX_TOP_P = 1.0;
+
     private final ApiKeyRepository apiKeyRepository;
     private final LlmClient llmClient;
+    private final PlaygroundResponseCache responseCache;
+    private final int maxTokensLimit;
 
-    public PlaygroundController(ApiKeyRepository apiKeyRepository, LlmClient llmClient) {
+    public PlaygroundController(ApiKeyRepository apiKeyRepository, LlmClient llmClient,
+                                PlaygroundResponseCache responseCache,
+                                @Value("${llm.context.window-tokens:4096}") int maxTokensLimit) {
         this.apiKeyRepository = apiKeyRepository;
         this.llmClient = llmClient;
+        this.responseCache = responseCache;
+        this.maxTokensLimit = maxTokensLimit;
     }
 
     @PostMapping("/chat")
-    public ResponseEntity<PlaygroundChatResponse> chat(
+    public CompletableFuture<ResponseEntity<PlaygroundChatResponse>> chat(
             @RequestHeader(value = "Authorization", required = false) String authorization,
             @RequestBody PlaygroundChatRequest request
     ) {
         Optional<ApiKey> apiKey = resolveApiKey(authorization);
         if (apiKey.isEmpty()) {
-            return ResponseEntity.status(401).build();
+            return CompletableFuture.completedFuture(ResponseEntity.status(401).build());
         }
 
-        if (request.getMessages() == null || request.getMessages().isEmpty()) {
-            return ResponseEntity.badRequest().build();
+        if (request.getMessages() == null || request.getMessages().isEmpty() || !validSampling(request)) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
         }
 
         List<Map<String, String>> messages = request.getMessages().stream()
@@ -52,9 +73,67 @@ public class PlaygroundController {
                 ))
                 .collect(Collectors.toList());
 
-        String llmResponse = llmClient.sendMessage(messages);
-        log.info("Playground chat processed via apiKey={}", apiKey.get().getUuid());
-        return ResponseEntity.ok(new PlaygroundChatResponse().setResult(llmResponse));
+        LlmRequest llmRequest = LlmRequest.builder()
+                .messages(messages)
+                .priority(LlmPriority.API)
+                .tenant("key:" + apiKey.get().getUuid())
+                .maxTokens(request.getMaxTokens())
+                .temperature(request.getTemperature())
+                .topP(request.getTopP())
+                .build();
+
+        // Greedy decoding is repeatable and always cached; sampled answers only when the request or key opts in
+        boolean cacheable = PlaygroundResponseCache.effectiveTemperature(llmRequest) == 0
+                || Boolean.TRUE.equals(request.getCache())
+                || Boolean.TRUE.equals(apiKey.get().getCacheSampledResponses());
+        String cacheStatus;
+        CompletableFuture<String> llmResponse;
+        if (cacheable) {
+            String cacheKey = responseCache.key(llmRequest);
+            Optional<String> cached = responseCache.get(cacheKey);
+            if (cached.isPresent()) {
+                return CompletableFuture.completedFuture(ResponseEntity.ok()
+                        .header(CACHE_HEADER, "HIT")
+                        .body(new PlaygroundChatResponse().setResult(cached.get())));
+            }
+            cacheStatus = "MISS";
+            llmResponse = responseCache.generate(cacheKey, () -> llmClient.sendMessageAsync(llmRequest));
+        } else {
+            cacheStatus = "BYPASS";
+            responseCache.recordBypass();
+            llmResponse = llmClient.sendMessageAsync(llmRequest);
+        }
+
+        return llmResponse
+                .thenApply(result -> {
+                    log.info("Playground chat processed via apiKey={} cache={}", apiKey.get().getUuid(), cacheStatus);
+                    return ResponseEntity.ok()
+                            .header(CACHE_HEADER, cacheStatus)
+                            .body(new PlaygroundChatResponse().setResult(result));
+                })
+                .exceptionally(ex -> {
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    if (cause instanceof LlmOverloadedException overloaded) {
+                        log.warn("Playground chat rejected, LLM queue full apiKey={}", apiKey.get().getUuid());
+                        return ResponseEntity.status(429)
+                                .header(HttpHeaders.RETRY_AFTER, String.valueOf(overloaded.getRetryAfterSeconds()))
+                                .build();
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
+
+    /**
+     * Client sampling parameters go to the LLM as they are, so each must stay within what one
+     * request may use: at most a context window of tokens, temperature 0..2 and top_p in (0, 1]
+     */
+    private boolean validSampling(PlaygroundChatRequest request) {
+        Integer maxTokens = request.getMaxTokens();
+        Double temperature = request.getTemperature();
+        Double topP = request.getTopP();
+        return (maxTokens == null || (maxTokens >= 1 && maxTokens <= maxTokensLimit))
+                && (temperature == null || (temperature >= 0 && temperature <= MAX_TEMPERATURE))
+                && (topP == null || (topP > 0 && topP <= MAX_TOP_P));
     }
 
     private Optional<ApiKey> resolveApiKey(String authorizationHeader) {
@@ -0,0 +1,173 @@
+package com.pocketllm.llm;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes OpenAI-style chat completion requests and reads the answer text back with Jackson's
+ * streaming API: no payload map or tree is built, the parameters that never change are encoded
+ * once, and responses are parsed straight from the received bytes, skipping every field except
+ * the content of the first choice.
+ */
+final class ChatCompletionCodec {
+
+    private static final byte[] MESSAGES_FIELD = ",\"messages\":".getBytes(StandardCharsets.UTF_8);
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final byte[] prefix;
+    private final String model;
+    private final int defaultMaxTokens;
+    private final double defaultTemperature;
+    private final double defaultTopP;
+
+    ChatCompletionCodec(String model, int maxTokens, double temperature, double topP) {
+        this.model = model;
+        this.defaultMaxTokens = maxTokens;
+        this.defaultTemperature = temperature;
+        this.defaultTopP = topP;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator json = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeStringField("model", model);
+            json.writeNumberField("max_tokens", maxTokens);
+            json.writeNumberField("temperature", temperature);
+            json.writeNumberField("top_p", topP);
+            // llama.cpp: keep the evaluated prompt in the slot's KV cache, so the next turn of the
+            // same conversation only evaluates the new tokens
+            json.writeBooleanField("cache_prompt", true);
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] object = out.toByteArray();
+        // Everything but the closing brace; the per-request fields are appended after it
+        this.prefix = Arrays.copyOf(object, object.length - 1);
+    }
+
+    /**
+     * Request body for request; slot pins the request to a llama.cpp slot when >= 0.
+     * Requests without sampling overrides use the pre-encoded defaults.
+     */
+    byte[] encodeRequest(LlmRequest request, int slot, boolean stream) {
+        List<Map<String, String>> messages = request.getMessages();
+        int estimate = prefix.length + 64;
+        for (Map<String, String> message : messages) {
+            estimate += message.getOrDefault("content", "").length() + 32;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(estimate);
+        if (request.getMaxTokens() == null && request.getTemperature() == null && request.getTopP() == null) {
+            out.writeBytes(prefix);
+        } else {
+            out.writeBytes(encodePrefix(request));
+        }
+        out.writeBytes(MESSAGES_FIELD);
+        try (JsonGenerator json = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+            json.writeStartArray();
+            for (Map<String, String> message : messages) {
+                json.writeStartObject();
+                for (Map.Entry<String, String> field : message.entrySet()) {
+                    json.writeStringField(field.getKey(), field.getValue());
+                }
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            if (slot >= 0) {
+                json.writeRaw(",\"id_slot\":");
+                json.writeRaw(Integer.toString(slot));
+            }
+            if (stream) {
+                json.writeRaw(",\"stream\":true");
+            }
+            json.writeRaw('}');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] encodePrefix(LlmRequest request) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(prefix.length + 16);
+        try (JsonGenerator json = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeStringField("model", model);
+            json.writeNumberField("max_tokens", request.getMaxTokens() != null ? request.getMaxTokens() : defaultMaxTokens);
+            json.writeNumberField("temperature", request.getTemperature() != null ? request.getTemperature() : defaultTemperature);
+            json.writeNumberField("top_p", request.getTopP() != null ? request.getTopP() : defaultTopP);
+            json.writeBooleanField("cache_prompt", true);
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] object = out.toByteArray();
+        return Arrays.copyOf(object, object.length - 1);
+    }
+
+    /**
+     * choices[0].message.content of a non-streamed completion, or null if there is none
+     */
+    String decodeCompletion(byte[] response) {
+        try (JsonParser parser = jsonFactory.createParser(response)) {
+            return firstChoiceContent(parser, "message");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * choices[0].delta.content of one streamed chunk, or null if it carries no text
+     */
+    String decodeChunk(String chunk) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(chunk)) {
+            return firstChoiceContent(parser, "delta");
+        }
+    }
+
+    private static String firstChoiceContent(JsonParser parser, String container) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("choices".equals(field) && value == JsonToken.START_ARRAY) {
+                return parser.nextToken() == JsonToken.START_OBJECT ? fieldContent(parser, container) : null;
+            }
+            parser.skipChildren();
+        }
+        return null;
+    }
+
+    /**
+     * Inside a choice object: the content string of its container object
+     */
+    private static String fieldContent(JsonParser parser, String container) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (container.equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    JsonToken content = parser.nextToken();
+                    if ("content".equals(name)) {
+                        return content == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    }
+                    parser.skipChildren();
+                }
+                return null;
+            }
+            parser.skipChildren();
+        }
+        return null;
+    }
+}
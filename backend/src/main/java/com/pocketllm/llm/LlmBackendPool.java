@@ -0,0 +1,248 @@
+package com.pocketllm.llm;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.pocketllm.util.HttpClientUtil;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Routes LLM calls across several model servers. Candidates are the healthy endpoints with a free
+ * slot (falling back to any healthy one, then to all of them); among those the cheapest one by the
+ * configured strategy is picked, scaled by endpoint weight. Endpoints are probed periodically and
+ * ejected after consecutive failures.
+ * <p>
+ * Requests carrying an affinity key (a chatId) are placed by consistent hashing instead, so a
+ * conversation keeps landing on the same endpoint and slot and llama.cpp can reuse the prompt
+ * already in that slot's KV cache. If the home endpoint is down or full, the next endpoint on the
+ * ring takes over; if the home slot is busy, another idle slot is used. Slots are only pinned once
+ * the health probe has read the server's slot count (total_slots of llama.cpp's /props); requests
+ * without a key, or to a server that has not reported its slots, let the server choose.
+ */
+@Slf4j
+public class LlmBackendPool {
+
+    public enum Strategy {
+        /** Fewest in-flight requests per unit of weight */
+        LEAST_OUTSTANDING,
+        /** Expected completion time: latency moving average times queue length, per unit of weight */
+        EWMA
+    }
+
+    // Ring points per unit of endpoint weight
+    private static final int VIRTUAL_NODES = 64;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final List<LlmEndpoint> endpoints;
+    private final TreeMap<Long, LlmEndpoint> ring = new TreeMap<>();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private final Strategy strategy;
+    private final HttpClientUtil httpClientUtil;
+    private final String healthPath;
+    private final String propsPath;
+    private final Duration healthTimeout;
+    private final int unhealthyThreshold;
+
+    public LlmBackendPool(List<LlmEndpoint> endpoints,
+                          Strategy strategy,
+                          HttpClientUtil httpClientUtil,
+                          String healthPath,
+                          String propsPath,
+                          Duration healthTimeout,
+                          int unhealthyThreshold,
+                          MeterRegistry meterRegistry) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one LLM endpoint is required");
+        }
+        this.endpoints = List.copyOf(endpoints);
+        this.strategy = strategy;
+        this.httpClientUtil = httpClientUtil;
+        this.healthPath = healthPath;
+        this.propsPath = propsPath;
+        this.healthTimeout = healthTimeout;
+        this.unhealthyThreshold = unhealthyThreshold;
+
+        for (LlmEndpoint endpoint : this.endpoints) {
+            for (int i = 0; i < VIRTUAL_NODES * endpoint.getWeight(); i++) {
+                ring.put(hash(endpoint.getUrl() + "#" + i), endpoint);
+            }
+            Gauge.builder("pocketllm.llm.endpoint.outstanding", endpoint, LlmEndpoint::getOutstanding)
+                    .tag("endpoint", endpoint.getUrl())
+                    .register(meterRegistry);
+            Gauge.builder("pocketllm.llm.endpoint.healthy", endpoint, e -> e.isHealthy() ? 1 : 0)
+                    .tag("endpoint", endpoint.getUrl())
+                    .register(meterRegistry);
+            Gauge.builder("pocketllm.llm.endpoint.latency", endpoint, LlmEndpoint::getLatencyMillis)
+                    .tag("endpoint", endpoint.getUrl())
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+        }
+    }
+
+    public List<LlmEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Sum of all endpoints' parallel slots
+     */
+    public int getTotalCapacity() {
+        return endpoints.stream().mapToInt(LlmEndpoint::getMaxConcurrency).sum();
+    }
+
+    /**
+     * Pick an endpoint and slot for one request and count it as outstanding; pair with {@link #release}.
+     * affinityKey may be null for requests without conversation context.
+     */
+    public synchronized LlmRoute acquire(String affinityKey) {
+        LlmEndpoint best = affinityKey == null ? null : stickyEndpoint(affinityKey);
+        if (best == null) {
+            best = pick(endpoints.stream().filter(e -> e.isHealthy() && e.hasFreeSlot()).toList());
+        }
+        if (best == null) {
+            best = pick(endpoints.stream().filter(LlmEndpoint::isHealthy).toList());
+        }
+        if (best == null) {
+            // Everything looks down: keep trying rather than failing every request
+            best = pick(endpoints);
+        }
+        int serverSlots = best.getServerSlots();
+        int preferredSlot = affinityKey == null || serverSlots == 0
+                ? -1
+                : (int) Math.floorMod(hash(affinityKey + "#slot"), (long) serverSlots);
+        return new LlmRoute(best, best.acquire(preferredSlot));
+    }
+
+    public void release(LlmRoute route, long latencyNanos, boolean success) {
+        LlmEndpoint endpoint = route.getEndpoint();
+        boolean wasHealthy = endpoint.isHealthy();
+        endpoint.release(route.getSlot(), latencyNanos, success, unhealthyThreshold);
+        if (wasHealthy && !endpoint.isHealthy()) {
+            log.warn("LLM endpoint {} ejected after {} consecutive failures", endpoint.getUrl(), unhealthyThreshold);
+        }
+    }
+
+    /**
+     * Start a round of health probes and return; the probes complete on the HTTP client's threads,
+     * so the shared scheduler thread is never held by a slow server. A round still running when the
+     * next one is due is not overlapped.
+     */
+    @Scheduled(fixedDelayString = "${llm.pool.health-interval:10s}")
+    public void checkHealth() {
+        if (probing.compareAndSet(false, true)) {
+            probeEndpoints().whenComplete((done, ex) -> probing.set(false));
+        }
+    }
+
+    /**
+     * Probe every endpoint's health URL; a 200 readmits an ejected endpoint. Healthy endpoints are
+     * then asked for their slot count, which may change when the server restarts.
+     */
+    CompletableFuture<Void> probeEndpoints() {
+        return CompletableFuture.allOf(endpoints.stream()
+                .map(endpoint -> httpClientUtil.getStatusAsync(endpoint.getServerUrl(healthPath), healthTimeout)
+                        .handle((status, ex) -> {
+                            boolean wasHealthy = endpoint.isHealthy();
+                            endpoint.recordOutcome(ex == null && status == 200, unhealthyThreshold);
+                            if (wasHealthy != endpoint.isHealthy()) {
+                                log.info("LLM endpoint {} is now {}", endpoint.getUrl(),
+                                        endpoint.isHealthy() ? "healthy" : "unhealthy");
+                            }
+                            return endpoint.isHealthy();
+                        })
+                        .thenCompose(healthy -> healthy ? readServerSlots(endpoint) : CompletableFuture.completedFuture(null)))
+                .toArray(CompletableFuture[]::new));
+    }
+
+    private CompletableFuture<Void> readServerSlots(LlmEndpoint endpoint) {
+        return httpClientUtil.getAsync(endpoint.getServerUrl(propsPath), healthTimeout)
+                .handle((props, ex) -> {
+                    int slots = ex == null ? totalSlots(props) : 0;
+                    if (slots > 0 && slots != endpoint.getServerSlots()) {
+                        if (slots != endpoint.getMaxConcurrency()) {
+                            log.warn("LLM endpoint {} has {} slots but is configured for {} concurrent requests",
+                                    endpoint.getUrl(), slots, endpoint.getMaxConcurrency());
+                        }
+                        endpoint.setServerSlots(slots);
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * total_slots of a llama.cpp /props response, 0 if it has none
+     */
+    static int totalSlots(byte[] props) {
+        try (JsonParser parser = JSON.createParser(props)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return 0;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("total_slots".equals(field)) {
+                    return value == JsonToken.VALUE_NUMBER_INT ? parser.getIntValue() : 0;
+                }
+                parser.skipChildren();
+            }
+            return 0;
+        } catch (IOException e) {
+            return 0; // not llama.cpp's /props: slots are left to the server
+        }
+    }
+
+    /**
+     * First healthy endpoint with a free slot clockwise from the key's position on the ring
+     */
+    private LlmEndpoint stickyEndpoint(String affinityKey) {
+        long position = hash(affinityKey);
+        for (Map<Long, LlmEndpoint> segment : List.of(ring.tailMap(position), ring.headMap(position))) {
+            for (LlmEndpoint endpoint : segment.values()) {
+                if (endpoint.isHealthy() && endpoint.hasFreeSlot()) {
+                    return endpoint;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 64-bit FNV-1a with a final avalanche step, stable across JVM runs
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private LlmEndpoint pick(List<LlmEndpoint> candidates) {
+        ToDoubleFunction<LlmEndpoint> cost = switch (strategy) {
+            case LEAST_OUTSTANDING -> e -> (e.getOutstanding() + 1.0) / e.getWeight();
+            case EWMA -> e -> Math.max(e.getLatencyMillis(), 1.0) * (e.getOutstanding() + 1.0) / e.getWeight();
+        };
+        return candidates.stream()
+                .min(Comparator.comparingDouble(cost).thenComparingInt(LlmEndpoint::getOutstanding))
+                .orElse(null);
+    }
+}
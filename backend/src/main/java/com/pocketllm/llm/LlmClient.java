@@ -1,60 +1,160 @@
-
 package com.pocketllm.llm;
 
 import com.pocketllm.util.HttpClientUtil;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Component
+@Slf4j
 public class LlmClient {
 
-    private final HttpClientUtil httpClientUtil;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private static final String EMPTY_RESPONSE = "I apologize, but I couldn't generate a response.";
+    private static final String ERROR_PREFIX = "Error connecting to LLM: ";
 
-    @Value("${llm.client.url:http://localhost:8081/v1/chat/completions}")
-    private String llmUrl;
+    public static final int DEFAULT_MAX_TOKENS = 100;
+    public static final double DEFAULT_TEMPERATURE = 0.7;
+    public static final double DEFAULT_TOP_P = 0.9;
+
+    private final HttpClientUtil httpClientUtil;
+    private final LlmScheduler scheduler;
+    private final LlmBackendPool backendPool;
+    private final ChatCompletionCodec codec;
+    private final String llmModel;
 
     @Value("${llm.client.timeout:60s}")
     private Duration llmTimeout;
 
-    @Value("${llm.client.model:local-model}")
-    private String llmModel;
-
-    public LlmClient(HttpClientUtil httpClientUtil) {
+    public LlmClient(HttpClientUtil httpClientUtil, LlmScheduler scheduler, LlmBackendPool backendPool,
+                     @Value("${llm.client.model:local-model}") String llmModel) {
         this.httpClientUtil = httpClientUtil;
+        this.scheduler = scheduler;
+        this.backendPool = backendPool;
+        this.llmModel = llmModel;
+        this.codec = new ChatCompletionCodec(llmModel, DEFAULT_MAX_TOKENS, DEFAULT_TEMPERATURE, DEFAULT_TOP_P);
+    }
+
+    /**
+     * Request a completion without holding a thread while the model generates.
+     * The call waits for a slot in the {@link LlmScheduler}; if its queue is full the future fails
+     * with LlmOverloadedException. Other failures complete normally with an error text,
+     * so callers can treat the result as the answer.
+     */
+    public CompletableFuture<String> sendMessageAsync(LlmRequest request) {
+        return scheduler.submit(request.getPriority(), request.getTenant(), () ->
+                onRoute(request, route -> httpClientUtil.postJsonAsync(route.getEndpoint().getUrl(),
+                        codec.encodeRequest(request, route.getSlot(), false)))
+                        .thenApply(this::parseCompletion)
+                        .orTimeout(llmTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                        .exceptionally(this::errorResponse));
+    }
+
+    /**
+     * Request a streamed completion and pass every content delta to onToken as it arrives.
+     * Completes with the assembled answer once the stream ends (or an error text, like sendMessageAsync,
+     * if nothing was streamed yet). The timeout applies to the stream itself, so it cancels the response
+     * body and frees the backend slot. A failure after the first token fails the future with
+     * LlmStreamInterruptedException instead: the client has seen part of an answer, and an error text
+     * must not be stored in its place.
+     */
+    public CompletableFuture<String> streamMessageAsync(LlmRequest request, Consumer<String> onToken) {
+        StringBuffer answer = new StringBuffer();
+        return scheduler.submit(request.getPriority(), request.getTenant(), () ->
+                onRoute(request, route -> httpClientUtil.postJsonStreamAsync(route.getEndpoint().getUrl(),
+                        codec.encodeRequest(request, route.getSlot(), true), line -> {
+                            String token = parseStreamLine(line);
+                            if (token != null && !token.isEmpty()) {
+                                answer.append(token);
+                                onToken.accept(token);
+                            }
+                        }).orTimeout(llmTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                        .handle((done, ex) -> {
+                            if (ex == null) {
+                                return answer.length() == 0 ? EMPTY_RESPONSE : answer.toString();
+                            }
+                            if (answer.length() > 0) {
+                                throw new LlmStreamInterruptedException(detail(ex), ex);
+                            }
+                            return errorResponse(ex);
+                        }));
+    }
+
+    /**
+     * Run call against the endpoint/slot the backend pool assigns to this request
+     * (sticky per affinity key) and report the outcome back to the pool
+     */
+    private <T> CompletableFuture<T> onRoute(LlmRequest request, Function<LlmRoute, CompletableFuture<T>> call) {
+        LlmRoute route = backendPool.acquire(request.getAffinityKey());
+        long startedAt = System.nanoTime();
+        CompletableFuture<T> result;
+        try {
+            result = call.apply(route);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((value, ex) -> backendPool.release(route, System.nanoTime() - startedAt, ex == null));
     }
 
-    public String sendMessage(List<Map<String, String>> messages) {
+    /**
+     * Answer text of a non-streamed completion
+     */
+    private String parseCompletion(byte[] response) {
+        String content = codec.decodeCompletion(response);
+        return content != null ? content : EMPTY_RESPONSE;
+    }
+
+    /**
+     * Extract choices[0].delta.content from one SSE line ("data: {...}"), or null if the line carries no text
+     */
+    private String parseStreamLine(String line) {
+        if (!line.startsWith("data:")) {
+            return null;
+        }
+        String data = line.substring("data:".length()).trim();
+        if (data.isEmpty() || "[DONE]".equals(data)) {
+            return null;
+        }
         try {
-            // Prepare payload
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("model", llmModel);
-            payload.put("messages", messages);
-            payload.put("max_tokens", 100);
-            payload.put("temperature", 0.7);
-            payload.put("top_p", 0.9);
-
-            String jsonBody = mapper.writeValueAsString(payload);
-
-            // Use HttpClientUtil for POST with timeout
-            String response = httpClientUtil.postJson(llmUrl, jsonBody);
-
-            // Parse response
-            Map<String, Object> result = mapper.readValue(response, Map.class);
-            List<Map<String, Object>> choices = (List<Map<String, Object>>) result.get("choices");
-            if (choices != null && !choices.isEmpty()) {
-                Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
-                return (String) message.get("content");
-            }
-            return "I apologize, but I couldn't generate a response.";
-        } catch (Exception e) {
-            return "Error connecting to LLM: " + e.getMessage();
+            return codec.decodeChunk(data);
+        } catch (IOException e) {
+            // A malformed chunk must not abort the stream; skip it
+            log.warn("Skipping unparsable stream chunk: {}", data);
+            return null;
         }
     }
+
+    private String errorResponse(Throwable e) {
+        return ERROR_PREFIX + detail(e);
+    }
+
+    private static String detail(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof UncheckedIOException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    /**
+     * Name of the model requests are sent to
+     */
+    public String getModel() {
+        return llmModel;
+    }
+
+    /**
+     * True for the placeholder texts returned instead of a real answer (failure, empty completion)
+     */
+    public static boolean isErrorResponse(String response) {
+        return response == null || response.startsWith(ERROR_PREFIX) || response.equals(EMPTY_RESPONSE);
+    }
 }
@@ -0,0 +1,112 @@
+package com.pocketllm.llm;
+
+import lombok.Getter;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One OpenAI-compatible model server with its live load and health state
+ */
+@Getter
+public class LlmEndpoint {
+
+    // Weight of the newest sample in the latency moving average
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final String url;
+    private final int weight;
+    private final int maxConcurrency;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    // One per slot of the server, once it has reported how many it has
+    private boolean[] busySlots = new boolean[0];
+
+    private volatile double latencyMillis;
+    private volatile boolean healthy = true;
+    private volatile int consecutiveFailures;
+
+    public LlmEndpoint(String url, int weight, int maxConcurrency) {
+        this.url = url;
+        this.weight = Math.max(1, weight);
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    /**
+     * URL of path on the same server, for the health and properties probes
+     */
+    public String getServerUrl(String path) {
+        URI uri = URI.create(url);
+        return uri.getScheme() + "://" + uri.getRawAuthority() + path;
+    }
+
+    /**
+     * Slots the server reported it has; 0 until it has
+     */
+    public synchronized int getServerSlots() {
+        return busySlots.length;
+    }
+
+    synchronized void setServerSlots(int slots) {
+        if (slots != busySlots.length) {
+            busySlots = Arrays.copyOf(busySlots, slots);
+        }
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    boolean hasFreeSlot() {
+        return outstanding.get() < maxConcurrency;
+    }
+
+    /**
+     * Count a request and, if it has a preferred slot, reserve a server slot for it: the preferred
+     * one if it is idle, otherwise any idle slot, otherwise -1 (let the server choose)
+     */
+    synchronized int acquire(int preferredSlot) {
+        outstanding.incrementAndGet();
+        int slot = -1;
+        if (preferredSlot < 0 || preferredSlot >= busySlots.length) {
+            return slot;
+        }
+        if (!busySlots[preferredSlot]) {
+            slot = preferredSlot;
+        } else {
+            for (int i = 0; i < busySlots.length && slot < 0; i++) {
+                if (!busySlots[i]) {
+                    slot = i;
+                }
+            }
+        }
+        if (slot >= 0) {
+            busySlots[slot] = true;
+        }
+        return slot;
+    }
+
+    synchronized void release(int slot, long latencyNanos, boolean success, int unhealthyThreshold) {
+        outstanding.decrementAndGet();
+        if (slot >= 0 && slot < busySlots.length) {
+            busySlots[slot] = false;
+        }
+        if (success) {
+            double millis = latencyNanos / 1_000_000.0;
+            latencyMillis = latencyMillis == 0 ? millis : latencyMillis + EWMA_ALPHA * (millis - latencyMillis);
+        }
+        recordOutcome(success, unhealthyThreshold);
+    }
+
+    /**
+     * Consecutive failures (requests or probes) eject the endpoint; any success brings it back
+     */
+    synchronized void recordOutcome(boolean success, int unhealthyThreshold) {
+        if (success) {
+            consecutiveFailures = 0;
+            healthy = true;
+        } else if (++consecutiveFailures >= unhealthyThreshold) {
+            healthy = false;
+        }
+    }
+}
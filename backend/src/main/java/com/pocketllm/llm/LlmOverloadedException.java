@@ -0,0 +1,17 @@
+package com.pocketllm.llm;
+
+import lombok.Getter;
+
+/**
+ * Thrown when the LLM scheduler queue is full; controllers answer 429 with Retry-After
+ */
+@Getter
+public class LlmOverloadedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public LlmOverloadedException(long retryAfterSeconds) {
+        super("LLM server is busy, retry in " + retryAfterSeconds + "s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
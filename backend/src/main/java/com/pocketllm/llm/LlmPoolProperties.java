@@ -0,0 +1,40 @@
+package com.pocketllm.llm;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * llm.pool.* settings. Without any llm.pool.endpoints the pool holds the single llm.client.url server.
+ */
+@Data
+@ConfigurationProperties(prefix = "llm.pool")
+public class LlmPoolProperties {
+
+    private LlmBackendPool.Strategy strategy = LlmBackendPool.Strategy.LEAST_OUTSTANDING;
+
+    private String healthPath = "/health";
+
+    // llama.cpp server properties; total_slots is the number of slots id_slot may address
+    private String propsPath = "/props";
+
+    private Duration healthTimeout = Duration.ofSeconds(2);
+
+    // Consecutive failed requests or probes before an endpoint is ejected
+    private int unhealthyThreshold = 2;
+
+    // Parallel slots of the llm.client.url server when no endpoints are listed
+    private int defaultMaxConcurrency = 1;
+
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    @Data
+    public static class Endpoint {
+        private String url;
+        private int weight = 1;
+        private int maxConcurrency = 1;
+    }
+}
@@ -0,0 +1,13 @@
+package com.pocketllm.llm;
+
+/**
+ * Scheduling class of an LLM request; earlier constants are served first
+ */
+public enum LlmPriority {
+    /** Interactive chat traffic (/api/chat) */
+    INTERACTIVE,
+    /** API-key traffic (/api/playground) */
+    API,
+    /** Background work such as summarization */
+    BACKGROUND
+}
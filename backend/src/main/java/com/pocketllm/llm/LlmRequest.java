@@ -0,0 +1,27 @@
+package com.pocketllm.llm;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Builder
+public class LlmRequest {
+    private List<Map<String, String>> messages;
+
+    @Builder.Default
+    private LlmPriority priority = LlmPriority.INTERACTIVE;
+
+    // Fairness bucket inside a priority class, e.g. "user:<uuid>" or "key:<uuid>"
+    private String tenant;
+
+    // Requests with the same key (a chatId) stick to the same endpoint and slot to reuse its KV cache
+    private String affinityKey;
+
+    // Sampling overrides; null uses the LlmClient defaults
+    private Integer maxTokens;
+    private Double temperature;
+    private Double topP;
+}
@@ -0,0 +1,15 @@
+package com.pocketllm.llm;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Where one LLM request runs: an endpoint of the pool and the server slot reserved on it
+ * (-1 when every slot is taken and the server should pick)
+ */
+@Getter
+@RequiredArgsConstructor
+public class LlmRoute {
+    private final LlmEndpoint endpoint;
+    private final int slot;
+}
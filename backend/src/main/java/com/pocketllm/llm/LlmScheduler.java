@@ -0,0 +1,255 @@
+package com.pocketllm.llm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Admission control in front of the model server: at most maxConcurrency generations run at once,
+ * up to queueCapacity more wait. Waiting requests are served by priority class, and round-robin
+ * between tenants inside a class so one busy user or API key cannot starve the others.
+ * When the queue is full, submissions fail fast with {@link LlmOverloadedException}; a request
+ * still waiting after max-queue-wait fails the same way, and one whose caller completed or
+ * cancelled its future is dropped from the queue without running.
+ */
+@Component
+public class LlmScheduler {
+
+    // Weight of the newest sample in the service time moving average
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final int maxConcurrency;
+    private final int queueCapacity;
+    private final Duration maxQueueWait;
+    private final Map<LlmPriority, FairQueue> waiting = new EnumMap<>(LlmPriority.class);
+
+    private int running;
+    private int queued;
+    private double serviceTimeMillis;
+
+    private final Timer waitTimer;
+    private final Counter rejected;
+    private final Counter expired;
+
+    /**
+     * A max-concurrency of 0 means "all parallel slots of the backend pool"
+     */
+    public LlmScheduler(@Value("${llm.scheduler.max-concurrency:0}") int maxConcurrency,
+                        @Value("${llm.scheduler.queue-capacity:32}") int queueCapacity,
+                        @Value("${llm.scheduler.initial-service-time:10s}") Duration initialServiceTime,
+                        @Value("${llm.scheduler.max-queue-wait:30s}") Duration maxQueueWait,
+                        LlmBackendPool backendPool,
+                        MeterRegistry meterRegistry) {
+        this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : backendPool.getTotalCapacity();
+        this.queueCapacity = queueCapacity;
+        this.maxQueueWait = maxQueueWait;
+        this.serviceTimeMillis = initialServiceTime.toMillis();
+        for (LlmPriority priority : LlmPriority.values()) {
+            waiting.put(priority, new FairQueue());
+        }
+
+        this.waitTimer = Timer.builder("pocketllm.llm.scheduler.wait")
+                .description("Time requests spent queued before reaching the model server")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("pocketllm.llm.scheduler.rejected")
+                .description("Requests refused because the queue was full")
+                .register(meterRegistry);
+        this.expired = Counter.builder("pocketllm.llm.scheduler.expired")
+                .description("Requests dropped from the queue after max-queue-wait or because their caller gave up")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.llm.scheduler.queued", this, LlmScheduler::getQueued)
+                .description("Requests waiting for a model server slot")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.llm.scheduler.running", this, LlmScheduler::getRunning)
+                .description("Requests currently being generated")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.llm.scheduler.service.time", this, LlmScheduler::getServiceTimeMillis)
+                .description("Moving average of generation time")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Run task as soon as a slot is free. The returned future fails with LlmOverloadedException
+     * immediately if the wait queue is full, or once max-queue-wait has passed without a slot.
+     * Completing or cancelling it while it waits withdraws the request.
+     */
+    public <T> CompletableFuture<T> submit(LlmPriority priority, String tenant, Supplier<CompletableFuture<T>> task) {
+        Ticket<T> ticket = new Ticket<>(task);
+        boolean startNow;
+        synchronized (this) {
+            if (running >= maxConcurrency) {
+                if (queued >= queueCapacity) {
+                    rejected.increment();
+                    return CompletableFuture.failedFuture(new LlmOverloadedException(estimateRetryAfterSeconds()));
+                }
+                waiting.get(priority).add(tenant == null ? "" : tenant, ticket);
+                queued++;
+                startNow = false;
+            } else {
+                running++;
+                ticket.started = true;
+                startNow = true;
+            }
+        }
+        if (startNow) {
+            start(ticket);
+            return ticket.result;
+        }
+        ticket.result.whenComplete((value, ex) -> withdraw(ticket));
+        CompletableFuture.delayedExecutor(maxQueueWait.toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+            if (withdraw(ticket)) {
+                ticket.result.completeExceptionally(new LlmOverloadedException(estimateRetryAfterSeconds()));
+            }
+        });
+        return ticket.result;
+    }
+
+    /**
+     * Fail fast before doing any work for a request that would be rejected anyway
+     */
+    public synchronized void checkAdmission() {
+        if (running >= maxConcurrency && queued >= queueCapacity) {
+            rejected.increment();
+            throw new LlmOverloadedException(estimateRetryAfterSeconds());
+        }
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized double getServiceTimeMillis() {
+        return serviceTimeMillis;
+    }
+
+    /**
+     * Take a ticket that has not started out of the queue count; it is skipped when its turn comes.
+     * False if it already started or was withdrawn.
+     */
+    private synchronized boolean withdraw(Ticket<?> ticket) {
+        if (ticket.started || ticket.withdrawn) {
+            return false;
+        }
+        ticket.withdrawn = true;
+        queued--;
+        expired.increment();
+        return true;
+    }
+
+    private <T> void start(Ticket<T> ticket) {
+        long startedAt = System.nanoTime();
+        waitTimer.record(startedAt - ticket.enqueuedAt, TimeUnit.NANOSECONDS);
+
+        CompletableFuture<T> execution;
+        try {
+            execution = ticket.task.get();
+        } catch (RuntimeException e) {
+            execution = CompletableFuture.failedFuture(e);
+        }
+        execution.whenComplete((value, ex) -> {
+            finish(System.nanoTime() - startedAt);
+            if (ex != null) {
+                ticket.result.completeExceptionally(ex);
+            } else {
+                ticket.result.complete(value);
+            }
+        });
+    }
+
+    private void finish(long serviceNanos) {
+        Ticket<?> next;
+        synchronized (this) {
+            serviceTimeMillis += EWMA_ALPHA * (TimeUnit.NANOSECONDS.toMillis(serviceNanos) - serviceTimeMillis);
+            next = pollNext();
+            if (next == null) {
+                running--;
+                return;
+            }
+            queued--;
+            next.started = true;
+        }
+        // The freed slot passes straight to the next waiting request
+        start(next);
+    }
+
+    private Ticket<?> pollNext() {
+        for (FairQueue queue : waiting.values()) {
+            Ticket<?> ticket;
+            while ((ticket = queue.poll()) != null) {
+                if (!ticket.withdrawn) {
+                    return ticket;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Time until a request submitted now would likely start: everything queued ahead of it
+     * plus itself, drained by maxConcurrency slots at the observed service time
+     */
+    private synchronized long estimateRetryAfterSeconds() {
+        double millis = serviceTimeMillis * (queued + 1) / maxConcurrency;
+        return Math.max(1, (long) Math.ceil(millis / 1000));
+    }
+
+    private static final class Ticket<T> {
+        private final Supplier<CompletableFuture<T>> task;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+        // Guarded by the scheduler
+        private boolean started;
+        private boolean withdrawn;
+
+        private Ticket(Supplier<CompletableFuture<T>> task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * Per-tenant FIFO queues visited round-robin
+     */
+    private static final class FairQueue {
+        private final Map<String, ArrayDeque<Ticket<?>>> byTenant = new HashMap<>();
+        private final ArrayDeque<String> rotation = new ArrayDeque<>();
+
+        private void add(String tenant, Ticket<?> ticket) {
+            byTenant.computeIfAbsent(tenant, key -> {
+                rotation.addLast(key);
+                return new ArrayDeque<>();
+            }).addLast(ticket);
+        }
+
+        private Ticket<?> poll() {
+            String tenant = rotation.pollFirst();
+            if (tenant == null) {
+                return null;
+            }
+            ArrayDeque<Ticket<?>> tickets = byTenant.get(tenant);
+            Ticket<?> ticket = tickets.pollFirst();
+            if (tickets.isEmpty()) {
+                byTenant.remove(tenant);
+            } else {
+                rotation.addLast(tenant);
+            }
+            return ticket;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.pocketllm.llm;
+
+/**
+ * Thrown when a streamed completion fails or times out after part of the answer was already sent
+ * to the client; the partial answer is not stored, so nothing stands in for it in history
+ */
+public class LlmStreamInterruptedException extends RuntimeException {
+
+    public LlmStreamInterruptedException(String detail, Throwable cause) {
+        super("LLM stream interrupted: " + detail, cause);
+    }
+}
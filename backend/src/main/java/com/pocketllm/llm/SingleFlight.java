@@ -0,0 +1,115 @@
+package com.pocketllm.llm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent generations for the same key: the first caller starts the work and
+ * every caller arriving while it is still running shares its result instead of starting another one.
+ * Metrics: pocketllm.singleflight.calls{role=leader|coalesced}, pocketllm.singleflight.inflight
+ */
+@Component
+public class SingleFlight {
+
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final Counter leaderCalls;
+    private final Counter coalescedCalls;
+
+    public SingleFlight(MeterRegistry meterRegistry) {
+        this.leaderCalls = Counter.builder("pocketllm.singleflight.calls")
+                .tag("role", "leader")
+                .description("Generations actually started")
+                .register(meterRegistry);
+        this.coalescedCalls = Counter.builder("pocketllm.singleflight.calls")
+                .tag("role", "coalesced")
+                .description("Calls that joined a generation already in progress")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.singleflight.inflight", flights, Map::size)
+                .description("Distinct generations currently in progress")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Run generator for key, or join the generation already running for it.
+     * onToken (nullable) receives the text produced so far and then every new token.
+     * The generator is handed a token sink when the first caller streams, otherwise null;
+     * streaming callers that join a non-streamed generation get the full answer as one token.
+     */
+    public CompletableFuture<String> execute(String key, Consumer<String> onToken,
+                                             Function<Consumer<String>, CompletableFuture<String>> generator) {
+        Flight flight = new Flight(onToken != null);
+        Flight running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            coalescedCalls.increment();
+            return running.join(onToken);
+        }
+
+        leaderCalls.increment();
+        CompletableFuture<String> joined = flight.join(onToken);
+        CompletableFuture<String> generation;
+        try {
+            generation = generator.apply(flight.streaming ? flight::emit : null);
+        } catch (RuntimeException e) {
+            generation = CompletableFuture.failedFuture(e);
+        }
+        generation.whenComplete((answer, ex) -> {
+            flights.remove(key, flight);
+            if (ex != null) {
+                flight.result.completeExceptionally(ex);
+            } else {
+                flight.result.complete(answer);
+            }
+        });
+        return joined;
+    }
+
+    private static final class Flight {
+
+        private final boolean streaming;
+        private final StringBuilder produced = new StringBuilder();
+        private final List<Consumer<String>> listeners = new ArrayList<>();
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        private Flight(boolean streaming) {
+            this.streaming = streaming;
+        }
+
+        private synchronized void emit(String token) {
+            produced.append(token);
+            for (Consumer<String> listener : listeners) {
+                listener.accept(token);
+            }
+        }
+
+        /**
+         * Attach a caller; each caller gets its own dependent future so nobody can complete
+         * or cancel the shared one
+         */
+        private synchronized CompletableFuture<String> join(Consumer<String> onToken) {
+            if (onToken == null) {
+                return result.copy();
+            }
+            if (!streaming) {
+                return result.thenApply(answer -> {
+                    onToken.accept(answer);
+                    return answer;
+                });
+            }
+            if (produced.length() > 0) {
+                onToken.accept(produced.toString());
+            }
+            listeners.add(onToken);
+            return result.copy();
+        }
+    }
+}
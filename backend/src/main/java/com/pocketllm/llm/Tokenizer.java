@@ -0,0 +1,199 @@
+package com.pocketllm.llm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Counts tokens in-process, so context trimming and accounting need no /tokenize round-trip.
+ * Loads the vocabulary and merge list of a SentencePiece-style BPE model (Llama / Phi-3 family)
+ * from a Hugging Face tokenizer.json given by llm.tokenizer.path: spaces become "▁", a "▁" is
+ * prepended, merges are applied by rank, and symbols missing from the vocabulary fall back to one
+ * token per UTF-8 byte. Per-word results are cached since chat text repeats words constantly; words
+ * longer than MAX_WORD_LENGTH are counted in chunks and bypass the cache.
+ * Without a tokenizer file, a length-based estimate is used.
+ */
+@Component
+@Slf4j
+public class Tokenizer {
+
+    private static final char SPACE_MARK = '▁';
+    private static final int MAX_WORD_LENGTH = 256;
+    private static final Comparator<MergeCandidate> MERGE_ORDER =
+            Comparator.<MergeCandidate>comparingInt(c -> c.rank).thenComparingInt(c -> c.left);
+
+    private final Set<String> vocab;
+    private final Map<String, Integer> mergeRanks;
+    private final Cache<String, Integer> wordCounts;
+
+    public Tokenizer(@Value("${llm.tokenizer.path:}") String tokenizerPath,
+                     @Value("${llm.tokenizer.cache-size:100000}") long cacheSize) {
+        this.wordCounts = Caffeine.newBuilder().maximumSize(cacheSize).build();
+        if (tokenizerPath == null || tokenizerPath.isBlank()) {
+            this.vocab = null;
+            this.mergeRanks = null;
+            log.info("No llm.tokenizer.path configured, token counts are estimated from text length");
+            return;
+        }
+        try (InputStream in = Files.newInputStream(Path.of(tokenizerPath))) {
+            JsonNode model = new ObjectMapper().readTree(in).path("model");
+            this.vocab = new HashSet<>();
+            model.path("vocab").fieldNames().forEachRemaining(vocab::add);
+            this.mergeRanks = new HashMap<>();
+            int rank = 0;
+            for (JsonNode merge : model.path("merges")) {
+                // Either "a b" or ["a", "b"] depending on the tokenizers version that wrote the file
+                String key = merge.isArray() ? merge.get(0).asText() + " " + merge.get(1).asText() : merge.asText();
+                mergeRanks.putIfAbsent(key, rank++);
+            }
+            log.info("Loaded tokenizer {} ({} tokens, {} merges)", tokenizerPath, vocab.size(), mergeRanks.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read tokenizer file " + tokenizerPath, e);
+        }
+    }
+
+    public int countTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        if (vocab == null) {
+            return text.length() / 4 + 1;
+        }
+        String normalized = SPACE_MARK + text.replace(' ', SPACE_MARK);
+        int count = 0;
+        for (String word : splitWords(normalized)) {
+            count += word.length() > MAX_WORD_LENGTH ? countLongWord(word) : wordCounts.get(word, this::countWord);
+        }
+        return count;
+    }
+
+    /**
+     * Split before every "▁" that follows a non-"▁" character; merges never join across these points
+     * except for runs of spaces, which stay together
+     */
+    private static List<String> splitWords(String normalized) {
+        List<String> words = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i < normalized.length(); i++) {
+            if (normalized.charAt(i) == SPACE_MARK && normalized.charAt(i - 1) != SPACE_MARK) {
+                words.add(normalized.substring(start, i));
+                start = i;
+            }
+        }
+        words.add(normalized.substring(start));
+        return words;
+    }
+
+    /**
+     * Words longer than MAX_WORD_LENGTH (base64 blobs, minified code, long digit runs) are counted in
+     * fixed-size chunks and not cached: one such word must neither cost a huge merge nor pin an entry
+     * the size of a pasted file in the cache. Merges across a chunk boundary are lost, so the count for
+     * such a word is an upper bound
+     */
+    private int countLongWord(String word) {
+        int count = 0;
+        int start = 0;
+        while (start < word.length()) {
+            int end = Math.min(start + MAX_WORD_LENGTH, word.length());
+            if (end < word.length() && Character.isHighSurrogate(word.charAt(end - 1))) {
+                end--;
+            }
+            count += countWord(word.substring(start, end));
+            start = end;
+        }
+        return count;
+    }
+
+    /**
+     * Apply merges by rank, lowest first and leftmost first on ties. Symbols form a linked list over
+     * the code points and candidate pairs sit in a priority queue; a candidate is stale once either side
+     * has merged with something else, which shows as the pair no longer being adjacent or no longer
+     * having the length it had when queued (symbols only ever grow)
+     */
+    private int countWord(String word) {
+        int[] codePoints = word.codePoints().toArray();
+        int n = codePoints.length;
+        String[] symbols = new String[n];
+        int[] prev = new int[n];
+        int[] next = new int[n];
+        for (int i = 0; i < n; i++) {
+            symbols[i] = new String(codePoints, i, 1);
+            prev[i] = i - 1;
+            next[i] = i + 1 < n ? i + 1 : -1;
+        }
+
+        PriorityQueue<MergeCandidate> queue = new PriorityQueue<>(MERGE_ORDER);
+        for (int i = 0; i + 1 < n; i++) {
+            offerMerge(queue, symbols, i, i + 1);
+        }
+        while (!queue.isEmpty()) {
+            MergeCandidate candidate = queue.poll();
+            int left = candidate.left;
+            int right = candidate.right;
+            if (symbols[left] == null || next[left] != right
+                    || symbols[left].length() + symbols[right].length() != candidate.merged.length()) {
+                continue;
+            }
+            symbols[left] = candidate.merged;
+            symbols[right] = null;
+            next[left] = next[right];
+            if (next[right] >= 0) {
+                prev[next[right]] = left;
+            }
+            if (prev[left] >= 0) {
+                offerMerge(queue, symbols, prev[left], left);
+            }
+            if (next[left] >= 0) {
+                offerMerge(queue, symbols, left, next[left]);
+            }
+        }
+
+        int count = 0;
+        for (String symbol : symbols) {
+            if (symbol != null) {
+                count += vocab.contains(symbol) ? 1 : symbol.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return count;
+    }
+
+    private void offerMerge(PriorityQueue<MergeCandidate> queue, String[] symbols, int left, int right) {
+        Integer rank = mergeRanks.get(symbols[left] + " " + symbols[right]);
+        if (rank != null) {
+            queue.add(new MergeCandidate(rank, left, right, symbols[left] + symbols[right]));
+        }
+    }
+
+    private static final class MergeCandidate {
+        private final int rank;
+        private final int left;
+        private final int right;
+        private final String merged;
+
+        private MergeCandidate(int rank, int left, int right, String merged) {
+            this.rank = rank;
+            this.left = left;
+            this.right = right;
+            this.merged = merged;
+        }
+    }
+}
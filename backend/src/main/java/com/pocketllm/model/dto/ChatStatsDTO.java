@@ -4,6 +4,8 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.experimental.Accessors;
 
+import java.time.LocalDateTime;
+
 @Data
 @Builder
 @Accessors(chain = true)
@@ -13,4 +15,6 @@ public class ChatStatsDTO {
     private String userEmail;
     private Long messageCount;
     private Long sizeBytes;
+    private Long tokenCount;
+    private LocalDateTime lastActivityAt;
 }
@@ -0,0 +1,18 @@
+package com.pocketllm.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated list with the cursors to continue from it: beforeCursor is null
+ * when there is nothing before the page, afterCursor is null only when the list is empty
+ */
+@Data
+@AllArgsConstructor
+public class KeysetPage<T> {
+    private List<T> items;
+    private String beforeCursor;
+    private String afterCursor;
+}
@@ -0,0 +1,25 @@
+package com.pocketllm.model.dto;
+
+import com.pocketllm.model.entity.QueryCache;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+
+@Data
+@AllArgsConstructor
+public class QueryCacheEntryDTO {
+    private Long id;
+    private String queryHash;
+    private String userQuery;
+    private Integer responseSize;
+    private String contentHash; // shared blob holding the response, null if the row has its own copy
+
+    public static QueryCacheEntryDTO of(QueryCache entry) {
+        Integer size = entry.getResponseSize() != null
+                ? entry.getResponseSize()
+                : Integer.valueOf(entry.getLlmResponse().getBytes(StandardCharsets.UTF_8).length);
+        return new QueryCacheEntryDTO(entry.getId(), entry.getQueryHash(), entry.getUserQuery(), size,
+                entry.getBlob() != null ? entry.getBlob().getContentHash() : null);
+    }
+}
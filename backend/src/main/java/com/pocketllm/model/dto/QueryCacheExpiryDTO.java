@@ -0,0 +1,13 @@
+package com.pocketllm.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+public class QueryCacheExpiryDTO {
+    private String queryHash;
+    private LocalDateTime expiresAt;
+}
@@ -0,0 +1,12 @@
+package com.pocketllm.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class QueryEmbeddingDTO {
+    private String queryHash;
+    private String userQuery;
+    private byte[] embedding;
+}
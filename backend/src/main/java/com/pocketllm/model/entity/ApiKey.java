@@ -44,6 +44,9 @@ public class ApiKey {
 
     private LocalDateTime lastUsedAt;
 
+    // Playground answers of sampled requests (temperature > 0) are cached for this key
+    private Boolean cacheSampledResponses;
+
     @PrePersist
     public void prePersist() {
         if (uuid == null) {
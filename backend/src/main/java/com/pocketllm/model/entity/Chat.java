@@ -35,4 +35,8 @@ public class Chat {
 
     @Column(nullable = false)
     private LocalDateTime createdAt;
+
+    // Rolling summary of turns that no longer fit in the LLM context window
+    @Column(columnDefinition = "TEXT")
+    private String summary;
 }
@@ -1,10 +1,16 @@
 package com.pocketllm.model.entity;
 
 import jakarta.persistence.Column;
+import jakarta.persistence.ConstraintMode;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.ForeignKey;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -20,6 +26,9 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @Builder
 public class ChatHistory {
+    // Shown in front of answers served from the query cache; not part of the stored text
+    public static final String CACHED_PREFIX = "*** FROM CACHE ***\n";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -27,13 +36,41 @@ public class ChatHistory {
     @Column(nullable = false)
     private String chatId;
 
-    @Column(nullable = false, columnDefinition = "TEXT")
+    // Empty when the text lives in the shared blob
+    @Column(nullable = false, columnDefinition = "BLOB")
+    @Convert(converter = CompressedTextConverter.class)
     private String content;
 
+    // Assistant answers are stored once in content_blob and shared between chats
+    @ManyToOne(fetch = FetchType.EAGER)
+    @JoinColumn(name = "content_hash", foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+    private ContentBlob blob;
+
+    @Column(name = "content_hash", length = 64, insertable = false, updatable = false)
+    private String contentHash;
+
+    private Integer contentLength; // characters of content; null for messages saved before compression
+
     @Column(nullable = false)
     private boolean fromUser; // true = user message, false = LLM response
 
     @Column(nullable = false)
     private LocalDateTime timestamp;
+
+    private Integer tokenCount; // counted when saved; null for messages saved before token counting
+
+    // Answer served from the query cache; null for messages saved before the flag, which carry CACHED_PREFIX in content
+    private Boolean fromCache;
+
+    public String getContent() {
+        return blob != null ? blob.getContent() : content;
+    }
+
+    /**
+     * Content as shown to the user, with the cache marker in front of answers served from the cache
+     */
+    public String getDisplayContent() {
+        return Boolean.TRUE.equals(fromCache) ? CACHED_PREFIX + getContent() : getContent();
+    }
 }
 
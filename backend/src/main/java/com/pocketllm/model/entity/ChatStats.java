@@ -0,0 +1,41 @@
+package com.pocketllm.model.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Per-chat totals for the admin chat list, updated in the transaction that writes or deletes the
+ * chat's messages. createdAt is copied from the chat, so every sort order reads this table only.
+ */
+@Entity
+@Table(name = "chat_stats")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ChatStats {
+
+    @Id
+    private String chatId;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    private long messageCount;
+
+    // Characters of content, like ChatHistory.contentLength
+    private long sizeBytes;
+
+    private long tokenCount;
+
+    // Time of the latest message; null while the chat has none
+    private LocalDateTime lastActivityAt;
+}
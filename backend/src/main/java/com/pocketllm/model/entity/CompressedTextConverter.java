@@ -0,0 +1,117 @@
+package com.pocketllm.model.entity;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores large text columns as raw Deflate primed with a preset dictionary of phrases common in
+ * chat answers. Compressed values start with a 0xFF marker, a byte that never occurs in UTF-8, and
+ * the dictionary version; anything else is UTF-8 text, so rows written before compression (and
+ * short values, which are kept as text) read back unchanged.
+ */
+@Converter
+public class CompressedTextConverter implements AttributeConverter<String, byte[]> {
+
+    static final int MIN_COMPRESS_BYTES = 256;
+
+    private static final byte MARKER = (byte) 0xFF;
+    private static final byte DICTIONARY_VERSION = 1;
+    private static final int HEADER_BYTES = 2;
+
+    // Header of the first compressed rows; text may start the same way, so it is only a hint
+    private static final byte LEGACY_MARKER = 0;
+
+    // Appended last = most likely to match; change only together with DICTIONARY_VERSION
+    private static final byte[] DICTIONARY = String.join("",
+            "```java\n```python\n```bash\n```json\n```\n",
+            "public static void main(String[] args) {\n    System.out.println(",
+            "def __init__(self, return None import numpy as np\n",
+            "For example, In summary, In other words, On the other hand, ",
+            "However, Additionally, Furthermore, Therefore, This means that ",
+            "Here is an example of Here's a simple example: ",
+            "Let me know if you have any other questions",
+            "I hope this helps! If you have any questions, feel free to ask",
+            "It is important to note that you can use the following ",
+            "there are several ways to which is used to such as ",
+            "**Note:** 1. **2. **3. **4. ** - **\n\n",
+            " and the of the in the to the for the is a that is with the ",
+            "can be used to you can the following: This is because "
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    @Override
+    public byte[] convertToDatabaseColumn(String text) {
+        if (text == null) {
+            return null;
+        }
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length < MIN_COMPRESS_BYTES) {
+            return utf8;
+        }
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(utf8);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 2 + HEADER_BYTES);
+        out.write(MARKER);
+        out.write(DICTIONARY_VERSION);
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        // Incompressible text is cheaper to keep as is
+        return out.size() < utf8.length ? out.toByteArray() : utf8;
+    }
+
+    @Override
+    public String convertToEntityAttribute(byte[] stored) {
+        if (stored == null) {
+            return null;
+        }
+        if (stored.length >= HEADER_BYTES && stored[0] == MARKER) {
+            if (stored[1] != DICTIONARY_VERSION) {
+                throw new IllegalStateException("Unknown compressed text dictionary version " + stored[1]);
+            }
+            return inflate(stored);
+        }
+        if (stored.length >= HEADER_BYTES && stored[0] == LEGACY_MARKER && stored[1] == DICTIONARY_VERSION) {
+            try {
+                return inflate(stored);
+            } catch (IllegalStateException e) {
+                // Text that happens to start like a compressed value
+            }
+        }
+        return new String(stored, StandardCharsets.UTF_8);
+    }
+
+    private static String inflate(byte[] stored) {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(stored, HEADER_BYTES, stored.length - HEADER_BYTES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 3);
+        byte[] chunk = new byte[4096];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated compressed text");
+                }
+                out.write(chunk, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed text", e);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,38 @@
+package com.pocketllm.model.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Text stored once and shared by every chat_history and query_cache row with the same content
+ */
+@Entity
+@Table(name = "content_blob")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ContentBlob {
+
+    // SHA-256 of the UTF-8 text (hex)
+    @Id
+    @Column(length = 64)
+    private String contentHash;
+
+    @Column(nullable = false, columnDefinition = "BLOB")
+    @Convert(converter = CompressedTextConverter.class)
+    private String content;
+
+    private long refCount; // rows pointing here; the blob is deleted when it drops to zero
+
+    private LocalDateTime createdAt;
+}
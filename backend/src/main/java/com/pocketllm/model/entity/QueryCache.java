@@ -1,10 +1,16 @@
 package com.pocketllm.model.entity;
 
 import jakarta.persistence.Column;
+import jakarta.persistence.ConstraintMode;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.ForeignKey;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -26,16 +32,42 @@ public class QueryCache {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(nullable = false, unique = true, length = 2000)
-    private String userQuery;
+    // 128-bit hash of userQuery (hex); the lookup key. Null only for rows not re-keyed yet
+    @Column(length = 32)
+    private String queryHash;
 
+    // Canonical query text, compared after a hash match and shown in stats
     @Column(nullable = false, columnDefinition = "TEXT")
+    private String userQuery;
+
+    // Empty when the text lives in the shared blob
+    @Column(nullable = false, columnDefinition = "BLOB")
+    @Convert(converter = CompressedTextConverter.class)
     private String llmResponse;
 
+    @ManyToOne(fetch = FetchType.EAGER)
+    @JoinColumn(name = "content_hash", foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+    private ContentBlob blob;
+
+    @Column(name = "content_hash", length = 64, insertable = false, updatable = false)
+    private String contentHash;
+
+    private Integer responseSize; // UTF-8 bytes of llmResponse
+
     private LocalDateTime createdAt;
 
     private LocalDateTime lastAccessedAt;
 
+    private LocalDateTime expiresAt;
+
     private int hitCount;
+
+    // Query vector for the semantic cache (little-endian float32), null until one is computed
+    @Column(columnDefinition = "BLOB")
+    private byte[] embedding;
+
+    public String getLlmResponse() {
+        return blob != null ? blob.getContent() : llmResponse;
+    }
 }
 
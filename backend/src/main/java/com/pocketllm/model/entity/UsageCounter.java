@@ -0,0 +1,32 @@
+package com.pocketllm.model.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Persisted value of one of the in-memory usage counters, so totals survive restarts
+ */
+@Entity
+@Table(name = "usage_counter")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UsageCounter {
+
+    @Id
+    @Column(length = 64)
+    private String name;
+
+    private long value;
+
+    private LocalDateTime updatedAt;
+}
@@ -7,5 +7,6 @@ import lombok.experimental.Accessors;
 @Accessors(chain = true)
 public class CreateApiKeyRequest {
     private String keyName;
+    private Boolean cacheSampledResponses;
 }
 
@@ -10,6 +10,11 @@ import java.util.List;
 public class PlaygroundChatRequest {
     private String model;
     private List<PlaygroundMessage> messages;
+    private Integer maxTokens;
+    private Double temperature;
+    private Double topP;
+    // Cache the answer even though sampling is random (temperature > 0)
+    private Boolean cache;
 
     @Data
     @Accessors(chain = true)
@@ -15,5 +15,6 @@ public class ApiKeyResponse {
     private String apiKey;
     private LocalDateTime createdAt;
     private LocalDateTime lastUsedAt;
+    private boolean cacheSampledResponses;
 }
 
@@ -1,21 +1,78 @@
 package com.pocketllm.repository;
 
+import com.pocketllm.model.dto.ChatActivityDTO;
 import com.pocketllm.model.entity.ChatHistory;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface ChatHistoryRepository extends JpaRepository<ChatHistory, Long> {
     // Retrieve all messages for a chat, sorted by timestamp (oldest first)
+    @EntityGraph(attributePaths = "blob")
     List<ChatHistory> findByChatIdOrderByTimestampAsc(String chatId);
 
-    // Hard delete all history for a chat
-    void deleteByChatId(String chatId);
+    // Most recent messages of a chat, newest first (LLM context window)
+    @EntityGraph(attributePaths = "blob")
+    List<ChatHistory> findByChatIdOrderByTimestampDesc(String chatId, Pageable pageable);
+
+    // Keyset pages of a chat's history by (timestamp, id): latest, older than and newer than a cursor
+    @EntityGraph(attributePaths = "blob")
+    @Query("SELECT h FROM ChatHistory h WHERE h.chatId = :chatId ORDER BY h.timestamp DESC, h.id DESC")
+    List<ChatHistory> findLatestPage(@Param("chatId") String chatId, Pageable pageable);
+
+    @EntityGraph(attributePaths = "blob")
+    @Query("""
+        SELECT h FROM ChatHistory h WHERE h.chatId = :chatId
+          AND (h.timestamp < :timestamp OR (h.timestamp = :timestamp AND h.id < :id))
+        ORDER BY h.timestamp DESC, h.id DESC
+    """)
+    List<ChatHistory> findPageBefore(@Param("chatId") String chatId, @Param("timestamp") LocalDateTime timestamp,
+                                     @Param("id") long id, Pageable pageable);
+
+    @EntityGraph(attributePaths = "blob")
+    @Query("""
+        SELECT h FROM ChatHistory h WHERE h.chatId = :chatId
+          AND (h.timestamp > :timestamp OR (h.timestamp = :timestamp AND h.id > :id))
+        ORDER BY h.timestamp ASC, h.id ASC
+    """)
+    List<ChatHistory> findPageAfter(@Param("chatId") String chatId, @Param("timestamp") LocalDateTime timestamp,
+                                    @Param("id") long id, Pageable pageable);
+
+    // Whole history of a chat, oldest first, read from the cursor in fetch-size chunks (needs a transaction)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT h FROM ChatHistory h LEFT JOIN FETCH h.blob WHERE h.chatId = :chatId ORDER BY h.timestamp ASC, h.id ASC")
+    Stream<ChatHistory> streamByChatId(@Param("chatId") String chatId);
+
+    // Shared answers referenced by a chat, released when the chat is deleted
+    @Query("SELECT h.contentHash FROM ChatHistory h WHERE h.chatId = :chatId AND h.contentHash IS NOT NULL")
+    List<String> findContentHashesByChatId(@Param("chatId") String chatId);
+
+    // Assistant messages still holding their own copy of the text
+    List<ChatHistory> findByFromUserFalseAndContentHashIsNull(Pageable pageable);
+
+    // Hard delete all history for a chat; returns the number of messages deleted
+    long deleteByChatId(String chatId);
 
     int countByTimestampAfter(LocalDateTime time);
+
+    long countByTimestampGreaterThanEqualAndTimestampLessThan(LocalDateTime from, LocalDateTime to);
+
+    // Chats with messages since a time, with their latest message time (seeds the usage statistics)
+    @Query("SELECT new com.pocketllm.model.dto.ChatActivityDTO(h.chatId, MAX(h.timestamp)) "
+            + "FROM ChatHistory h WHERE h.timestamp > :since GROUP BY h.chatId")
+    List<ChatActivityDTO> findChatActivitySince(@Param("since") LocalDateTime since);
+
     int countByChatId(String chatId);
 }
 
@@ -1,12 +1,16 @@
 package com.pocketllm.repository;
 
-import com.pocketllm.model.dto.ChatStatsDTO;
 import com.pocketllm.model.entity.Chat;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,33 +20,48 @@ public interface ChatRepository extends JpaRepository<Chat, Long> {
     // Retrieve all chats for a user, sorted by creation date (latest first)
     List<Chat> findByUserIdOrderByCreatedAtDesc(String userId);
 
+    // Keyset pages of a user's chats by (createdAt, id), newest first; chats newer than a cursor come oldest first
+    @Query("SELECT c FROM Chat c WHERE c.userId = :userId ORDER BY c.createdAt DESC, c.id DESC")
+    List<Chat> findLatestPage(@Param("userId") String userId, Pageable pageable);
+
+    @Query("""
+        SELECT c FROM Chat c WHERE c.userId = :userId
+          AND (c.createdAt < :createdAt OR (c.createdAt = :createdAt AND c.id < :id))
+        ORDER BY c.createdAt DESC, c.id DESC
+    """)
+    List<Chat> findPageBefore(@Param("userId") String userId, @Param("createdAt") LocalDateTime createdAt,
+                              @Param("id") long id, Pageable pageable);
+
+    @Query("""
+        SELECT c FROM Chat c WHERE c.userId = :userId
+          AND (c.createdAt > :createdAt OR (c.createdAt = :createdAt AND c.id > :id))
+        ORDER BY c.createdAt ASC, c.id ASC
+    """)
+    List<Chat> findPageAfter(@Param("userId") String userId, @Param("createdAt") LocalDateTime createdAt,
+                             @Param("id") long id, Pageable pageable);
+
     // Find a chat by its unique chatId
     Optional<Chat> findByChatId(String chatId);
 
-    // Verify ownership for deletion/authorization
-    boolean existsByChatIdAndUserId(String chatId, String userId);
+    // Owner of a chat, for the in-memory ownership index
+    @Query("SELECT c.userId FROM Chat c WHERE c.chatId = :chatId")
+    Optional<String> findUserIdByChatId(@Param("chatId") String chatId);
+
+    // Which of these chats still exist (the history writer drops messages for deleted ones)
+    @Query("SELECT c.chatId FROM Chat c WHERE c.chatId IN :chatIds")
+    List<String> findExistingChatIds(@Param("chatIds") Collection<String> chatIds);
 
     // Hard delete by chatId
-    void deleteByChatId(String chatId);
+    long deleteByChatId(String chatId);
+
+    // Store the rolling context summary without loading the chat
+    @Modifying
+    @Transactional
+    @Query("UPDATE Chat c SET c.summary = :summary WHERE c.chatId = :chatId")
+    int updateSummary(@Param("chatId") String chatId, @Param("summary") String summary);
 
     int countByUserId(String userId);
     int countByCreatedAtAfter(LocalDateTime time);
-
-    @Query("""
-        SELECT new com.pocketllm.model.dto.ChatStatsDTO(
-            c.chatId,
-            c.title,
-            u.email,
-            COUNT(h.id),
-            COALESCE(SUM(LENGTH(h.content)), 0)
-        )
-        FROM Chat c
-        JOIN User u ON u.uuid = c.userId
-        LEFT JOIN ChatHistory h ON h.chatId = c.chatId
-        GROUP BY c.chatId, c.title, u.email
-        ORDER BY c.createdAt DESC
-    """)
-    List<ChatStatsDTO> findAllChatStats();
 }
 
 
@@ -0,0 +1,76 @@
+package com.pocketllm.repository;
+
+import com.pocketllm.model.dto.ChatStatsDTO;
+import com.pocketllm.model.entity.ChatStats;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ChatStatsRepository extends JpaRepository<ChatStats, String> {
+
+    /**
+     * Admin chat list; the page's sort applies to ChatStats properties
+     */
+    @Query("""
+        SELECT new com.pocketllm.model.dto.ChatStatsDTO(
+            s.chatId, c.title, u.email, s.messageCount, s.sizeBytes, s.tokenCount, s.lastActivityAt
+        )
+        FROM ChatStats s
+        JOIN Chat c ON c.chatId = s.chatId
+        JOIN User u ON u.uuid = c.userId
+    """)
+    List<ChatStatsDTO> findPage(Pageable pageable);
+
+    /**
+     * Add freshly written messages to a chat's totals; 0 when the chat has no row yet (not backfilled)
+     */
+    @Modifying
+    @Transactional
+    @Query("""
+        UPDATE ChatStats s SET
+            s.messageCount = s.messageCount + :messages,
+            s.sizeBytes = s.sizeBytes + :sizeBytes,
+            s.tokenCount = s.tokenCount + :tokens,
+            s.lastActivityAt = CASE WHEN s.lastActivityAt IS NULL OR s.lastActivityAt < :lastActivityAt
+                                    THEN :lastActivityAt ELSE s.lastActivityAt END
+        WHERE s.chatId = :chatId
+    """)
+    int addMessages(@Param("chatId") String chatId, @Param("messages") long messages,
+                    @Param("sizeBytes") long sizeBytes, @Param("tokens") long tokens,
+                    @Param("lastActivityAt") LocalDateTime lastActivityAt);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ChatStats s WHERE s.chatId = :chatId")
+    int deleteByChatId(@Param("chatId") String chatId);
+
+    // Chats created before chat_stats existed
+    @Query("SELECT c.chatId FROM Chat c WHERE NOT EXISTS (SELECT 1 FROM ChatStats s WHERE s.chatId = c.chatId)")
+    List<String> findChatIdsWithoutStats(Pageable pageable);
+
+    /**
+     * Compute the rows of chats that have none from their history, in one statement, so a message
+     * written at the same time is either counted here or added to the row afterwards
+     */
+    @Modifying
+    @Transactional
+    @Query("""
+        INSERT INTO ChatStats (chatId, createdAt, messageCount, sizeBytes, tokenCount, lastActivityAt)
+        SELECT c.chatId, c.createdAt, COUNT(h.id),
+            COALESCE(SUM(COALESCE(h.contentLength, LENGTH(h.content))), 0),
+            COALESCE(SUM(h.tokenCount), 0), MAX(h.timestamp)
+        FROM Chat c LEFT JOIN ChatHistory h ON h.chatId = c.chatId
+        WHERE c.chatId IN :chatIds AND NOT EXISTS (SELECT 1 FROM ChatStats s WHERE s.chatId = c.chatId)
+        GROUP BY c.chatId, c.createdAt
+    """)
+    int backfill(@Param("chatIds") Collection<String> chatIds);
+}
@@ -0,0 +1,50 @@
+package com.pocketllm.repository;
+
+import com.pocketllm.model.entity.ContentBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+
+@Repository
+public interface ContentBlobRepository extends JpaRepository<ContentBlob, String> {
+
+    /**
+     * Take a reference on known content without rewriting it; 0 when the content is new
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE ContentBlob b SET b.refCount = b.refCount + 1 WHERE b.contentHash = :contentHash")
+    int addReference(@Param("contentHash") String contentHash);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE ContentBlob b SET b.refCount = b.refCount - :count WHERE b.contentHash = :contentHash")
+    int releaseReferences(@Param("contentHash") String contentHash, @Param("count") long count);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ContentBlob b WHERE b.contentHash IN :contentHashes AND b.refCount <= 0")
+    int deleteUnreferenced(@Param("contentHashes") Collection<String> contentHashes);
+
+    /**
+     * Set every reference count from the rows that actually point at the blob
+     */
+    @Modifying
+    @Transactional
+    @Query("""
+        UPDATE ContentBlob b SET b.refCount =
+            (SELECT COUNT(h) FROM ChatHistory h WHERE h.contentHash = b.contentHash)
+            + (SELECT COUNT(q) FROM QueryCache q WHERE q.contentHash = b.contentHash)
+    """)
+    int recountReferences();
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ContentBlob b WHERE b.refCount <= 0")
+    int deleteAllUnreferenced();
+}
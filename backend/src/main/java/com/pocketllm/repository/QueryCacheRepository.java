@@ -1,10 +1,20 @@
 package com.pocketllm.repository;
 
+import com.pocketllm.model.dto.QueryCacheEntryDTO;
+import com.pocketllm.model.dto.QueryCacheExpiryDTO;
+import com.pocketllm.model.dto.QueryEmbeddingDTO;
 import com.pocketllm.model.entity.QueryCache;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,14 +22,35 @@ import java.util.Optional;
 public interface QueryCacheRepository extends JpaRepository<QueryCache, Long> {
 
     /**
-     * Find cached response by exact user query match (normalized)
+     * Find cached response by the hash of the canonical query
+     */
+    @EntityGraph(attributePaths = "blob")
+    Optional<QueryCache> findByQueryHash(String queryHash);
+
+    /**
+     * Find cached response by exact user query match (only used while re-keying old rows)
      */
     Optional<QueryCache> findByUserQuery(String userQuery);
 
     /**
-     * Check if query exists in cache
+     * Rows cached before queries were hashed
+     */
+    List<QueryCache> findByQueryHashIsNull(Pageable pageable);
+
+    /**
+     * Rows still holding their own copy of the response
      */
-    boolean existsByUserQuery(String userQuery);
+    List<QueryCache> findByContentHashIsNull(Pageable pageable);
+
+    /**
+     * Add buffered hits without loading the entry
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE QueryCache q SET q.hitCount = q.hitCount + :hits, q.lastAccessedAt = :lastAccessedAt "
+            + "WHERE q.queryHash = :queryHash")
+    int addHits(@Param("queryHash") String queryHash, @Param("hits") long hits,
+                @Param("lastAccessedAt") LocalDateTime lastAccessedAt);
 
     /**
      * Delete all cache entries
@@ -33,4 +64,48 @@ public interface QueryCacheRepository extends JpaRepository<QueryCache, Long> {
     Integer countMisses();
 
     List<QueryCache> findTop10ByOrderByHitCountDesc();
+
+    /**
+     * Unexpired entries most worth keeping in memory: most hits first, most recently used among equals
+     */
+    @Query("SELECT q FROM QueryCache q LEFT JOIN FETCH q.blob WHERE q.queryHash IS NOT NULL AND (q.expiresAt IS NULL OR q.expiresAt > :now) "
+            + "ORDER BY q.hitCount DESC, q.lastAccessedAt DESC")
+    List<QueryCache> findHotEntries(@Param("now") LocalDateTime now, Pageable pageable);
+
+    /**
+     * Current expiry of the given entries; hashes no longer in the table are left out
+     */
+    @Query("SELECT new com.pocketllm.model.dto.QueryCacheExpiryDTO(q.queryHash, q.expiresAt) "
+            + "FROM QueryCache q WHERE q.queryHash IN :queryHashes")
+    List<QueryCacheExpiryDTO> findExpiryByQueryHashIn(@Param("queryHashes") Collection<String> queryHashes);
+
+    @Query("SELECT COALESCE(SUM(COALESCE(q.responseSize, LENGTH(q.llmResponse))), 0) FROM QueryCache q")
+    long sumResponseBytes();
+
+    /**
+     * Entries past their TTL; entries cached before TTLs count from createdAt
+     */
+    @Query("SELECT new com.pocketllm.model.dto.QueryCacheEntryDTO(q.id, q.queryHash, q.userQuery, "
+            + "COALESCE(q.responseSize, LENGTH(q.llmResponse)), q.contentHash) FROM QueryCache q "
+            + "WHERE q.expiresAt < :now OR (q.expiresAt IS NULL AND q.createdAt < :createdBefore)")
+    List<QueryCacheEntryDTO> findExpired(@Param("now") LocalDateTime now,
+                                         @Param("createdBefore") LocalDateTime createdBefore,
+                                         Pageable pageable);
+
+    /**
+     * Least frequently used entries first, least recently used among equally frequent ones
+     */
+    @Query("SELECT new com.pocketllm.model.dto.QueryCacheEntryDTO(q.id, q.queryHash, q.userQuery, "
+            + "COALESCE(q.responseSize, LENGTH(q.llmResponse)), q.contentHash) FROM QueryCache q "
+            + "ORDER BY q.hitCount ASC, q.lastAccessedAt ASC")
+    List<QueryCacheEntryDTO> findEvictionCandidates(Pageable pageable);
+
+    @Query("SELECT new com.pocketllm.model.dto.QueryEmbeddingDTO(q.queryHash, q.userQuery, q.embedding) "
+            + "FROM QueryCache q WHERE q.queryHash IS NOT NULL ORDER BY q.id")
+    List<QueryEmbeddingDTO> findEmbeddings(Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE QueryCache q SET q.embedding = :embedding WHERE q.queryHash = :queryHash")
+    int updateEmbedding(@Param("queryHash") String queryHash, @Param("embedding") byte[] embedding);
 }
\ No newline at end of file
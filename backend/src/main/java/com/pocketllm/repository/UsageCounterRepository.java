@@ -0,0 +1,9 @@
+package com.pocketllm.repository;
+
+import com.pocketllm.model.entity.UsageCounter;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UsageCounterRepository extends JpaRepository<UsageCounter, String> {
+}
@@ -0,0 +1,36 @@
+package com.pocketllm.semantic;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Turns a text into a unit-length vector, so that the dot product of two vectors is their cosine
+ * similarity. The semantic query cache uses whichever Embedder bean is defined; declare a
+ * {@code @Primary} one to replace the built-in {@link HashingEmbedder} with a real model.
+ */
+public interface Embedder {
+
+    float[] embed(String text);
+
+    int dimensions();
+
+    static byte[] toBytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    static float[] fromBytes(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
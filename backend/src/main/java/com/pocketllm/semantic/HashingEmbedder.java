@@ -0,0 +1,79 @@
+package com.pocketllm.semantic;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Lightweight offline embedder: words and character trigrams are hashed into a fixed number of
+ * signed buckets (feature hashing). It captures spelling and word overlap, not meaning, which is
+ * enough to match rephrasings like "what is java?" / "What's Java" without shipping a model.
+ */
+@Component
+public class HashingEmbedder implements Embedder {
+
+    private static final float WORD_WEIGHT = 1.0f;
+    private static final float TRIGRAM_WEIGHT = 0.5f;
+    // Function words say little about what is asked; they only get a small share of the vector
+    private static final float STOP_WORD_SCALE = 0.2f;
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "the", "is", "are", "was", "were", "be", "do", "does", "did", "what", "whats",
+            "how", "why", "who", "when", "where", "which", "can", "could", "would", "should", "will",
+            "i", "me", "my", "you", "your", "it", "its", "of", "to", "in", "on", "for", "with", "and",
+            "or", "about", "please", "tell", "explain");
+
+    private final int dimensions;
+
+    public HashingEmbedder(@Value("${query-cache.semantic.dimensions:256}") int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimensions];
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT)
+                .replaceAll("['\u2019]", "");
+        for (String word : normalized.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            float scale = STOP_WORDS.contains(word) ? STOP_WORD_SCALE : 1;
+            add(vector, word, WORD_WEIGHT * scale);
+            String padded = "<" + word + ">";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                add(vector, padded.substring(i, i + 3), TRIGRAM_WEIGHT * scale);
+            }
+        }
+
+        float norm = (float) Math.sqrt(Embedder.dot(vector, vector));
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= norm;
+            }
+        }
+        return vector;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private void add(float[] vector, String feature, float weight) {
+        int hash = mix(feature.hashCode());
+        // The sign comes from a different part of the hash, so collisions cancel out on average
+        vector[Math.floorMod(hash, dimensions)] += (hash & 0x80000000) == 0 ? weight : -weight;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,367 @@
+package com.pocketllm.semantic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Approximate nearest-neighbour index over unit vectors (Hierarchical Navigable Small World graph,
+ * Malkov and Yashunin). Similarity is the dot product. Searches run concurrently; inserts and
+ * removals take an exclusive lock, which is fine for a cache that is read far more than written.
+ * Removed entries stay in the graph as waypoints and are only filtered from results, until they
+ * make up a quarter of it; then the graph is rebuilt from the live entries.
+ */
+public class HnswIndex {
+
+    private static final double COMPACT_REMOVED_FRACTION = 0.25;
+    private static final int COMPACT_MIN_NODES = 256; // below this a few waypoints cost nothing
+
+    private final int m;
+    private final int maxLevel0Neighbours;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelFactor;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final Map<String, Node> byKey = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Node entryPoint;
+    private int liveCount;
+
+    public HnswIndex(int m, int efConstruction, int efSearch) {
+        this.m = m;
+        this.maxLevel0Neighbours = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelFactor = 1 / Math.log(m);
+    }
+
+    /**
+     * Add key with its vector; re-adding a key replaces its vector
+     */
+    public void add(String key, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            Node existing = byKey.get(key);
+            if (existing != null) {
+                if (Arrays.equals(existing.vector, vector) && !existing.removed) {
+                    return;
+                }
+                markRemoved(existing);
+            }
+            insert(key, vector);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insert(String key, float[] vector) {
+        int level = (int) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * levelFactor);
+        Node node = new Node(nodes.size(), key, vector, level);
+        nodes.add(node);
+        byKey.put(key, node);
+        liveCount++;
+        if (entryPoint == null) {
+            entryPoint = node;
+            return;
+        }
+
+        Node current = entryPoint;
+        for (int l = entryPoint.level; l > level; l--) {
+            current = greedyClosest(vector, current, l);
+        }
+        for (int l = Math.min(level, entryPoint.level); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(vector, current, efConstruction, l);
+            int maxNeighbours = l == 0 ? maxLevel0Neighbours : m;
+            for (Candidate neighbour : selectNeighbours(candidates, m)) {
+                node.connect(l, neighbour.node);
+                neighbour.node.connect(l, node);
+                if (neighbour.node.neighbourCount[l] > maxNeighbours) {
+                    prune(neighbour.node, l, maxNeighbours);
+                }
+            }
+            current = candidates.get(0).node;
+        }
+        if (level > entryPoint.level) {
+            entryPoint = node;
+        }
+    }
+
+    public void remove(String key) {
+        lock.writeLock().lock();
+        try {
+            Node node = byKey.get(key);
+            if (node != null) {
+                markRemoved(node);
+                compactIfNeeded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            nodes.clear();
+            byKey.clear();
+            entryPoint = null;
+            liveCount = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Up to k entries most similar to vector, best first
+     */
+    public List<Match> search(float[] vector, int k) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint == null) {
+                return List.of();
+            }
+            Node current = entryPoint;
+            for (int l = entryPoint.level; l > 0; l--) {
+                current = greedyClosest(vector, current, l);
+            }
+            List<Match> matches = new ArrayList<>(k);
+            for (Candidate candidate : searchLayer(vector, current, Math.max(efSearch, k), 0)) {
+                if (!candidate.node.removed) {
+                    matches.add(new Match(candidate.node.key, candidate.similarity));
+                    if (matches.size() == k) {
+                        break;
+                    }
+                }
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void markRemoved(Node node) {
+        if (!node.removed) {
+            node.removed = true;
+            liveCount--;
+        }
+        byKey.remove(node.key, node);
+    }
+
+    /**
+     * Rebuild the graph from the live entries once removed ones make up too much of it: they still
+     * cost a visit and a dot product on every search that passes through them
+     */
+    private void compactIfNeeded() {
+        int removed = nodes.size() - liveCount;
+        if (nodes.size() < COMPACT_MIN_NODES || removed < nodes.size() * COMPACT_REMOVED_FRACTION) {
+            return;
+        }
+        List<Node> live = new ArrayList<>(liveCount);
+        for (Node node : nodes) {
+            if (!node.removed) {
+                live.add(node);
+            }
+        }
+        nodes.clear();
+        byKey.clear();
+        entryPoint = null;
+        liveCount = 0;
+        for (Node node : live) {
+            insert(node.key, node.vector);
+        }
+    }
+
+    /**
+     * Nodes in the graph, removed ones included
+     */
+    int graphSize() {
+        lock.readLock().lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Node greedyClosest(float[] vector, Node start, int level) {
+        Node current = start;
+        float best = Embedder.dot(vector, current.vector);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbours = current.neighbours[level];
+            for (int i = 0; i < current.neighbourCount[level]; i++) {
+                Node candidate = nodes.get(neighbours[i]);
+                float similarity = Embedder.dot(vector, candidate.vector);
+                if (similarity > best) {
+                    best = similarity;
+                    current = candidate;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search of one layer keeping the ef most similar nodes found; result sorted best first
+     */
+    private List<Candidate> searchLayer(float[] vector, Node start, int ef, int level) {
+        // A search touches about ef nodes and their neighbours, not the whole graph
+        Set<Node> visited = new HashSet<>(Math.min(nodes.size(), ef * maxLevel0Neighbours));
+        visited.add(start);
+        Candidate first = new Candidate(start, Embedder.dot(vector, start.vector));
+        PriorityQueue<Candidate> toVisit = new PriorityQueue<>(Comparator.comparingDouble((Candidate c) -> -c.similarity));
+        PriorityQueue<Candidate> found = new PriorityQueue<>(Comparator.comparingDouble((Candidate c) -> c.similarity));
+        toVisit.add(first);
+        found.add(first);
+
+        while (!toVisit.isEmpty()) {
+            Candidate closest = toVisit.poll();
+            if (found.size() >= ef && closest.similarity < found.peek().similarity) {
+                break;
+            }
+            Node node = closest.node;
+            int[] neighbours = node.neighbours[level];
+            for (int i = 0; i < node.neighbourCount[level]; i++) {
+                Node neighbour = nodes.get(neighbours[i]);
+                if (!visited.add(neighbour)) {
+                    continue;
+                }
+                float similarity = Embedder.dot(vector, neighbour.vector);
+                if (found.size() < ef || similarity > found.peek().similarity) {
+                    Candidate candidate = new Candidate(neighbour, similarity);
+                    toVisit.add(candidate);
+                    found.add(candidate);
+                    if (found.size() > ef) {
+                        found.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> result = new ArrayList<>(found);
+        result.sort(Comparator.comparingDouble((Candidate c) -> -c.similarity));
+        return result;
+    }
+
+    /**
+     * Neighbour selection heuristic: skip a candidate that is closer to an already selected neighbour
+     * than to the new node, so links spread in different directions instead of into one cluster
+     */
+    private List<Candidate> selectNeighbours(List<Candidate> candidatesBestFirst, int max) {
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> skipped = new ArrayList<>();
+        for (Candidate candidate : candidatesBestFirst) {
+            if (selected.size() == max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Candidate chosen : selected) {
+                if (Embedder.dot(candidate.node.vector, chosen.node.vector) > candidate.similarity) {
+                    diverse = false;
+                    break;
+                }
+            }
+            (diverse ? selected : skipped).add(candidate);
+        }
+        // Fill up with the best skipped candidates to keep the graph well connected
+        for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+            selected.add(skipped.get(i));
+        }
+        return selected;
+    }
+
+    private void prune(Node node, int level, int max) {
+        List<Candidate> candidates = new ArrayList<>(node.neighbourCount[level]);
+        for (int i = 0; i < node.neighbourCount[level]; i++) {
+            Node neighbour = nodes.get(node.neighbours[level][i]);
+            candidates.add(new Candidate(neighbour, Embedder.dot(node.vector, neighbour.vector)));
+        }
+        candidates.sort(Comparator.comparingDouble((Candidate c) -> -c.similarity));
+        node.neighbourCount[level] = 0;
+        for (Candidate kept : selectNeighbours(candidates, max)) {
+            node.connect(level, kept.node);
+        }
+    }
+
+    /**
+     * A search result: the key it was added with and its similarity to the query
+     */
+    public static final class Match {
+        private final String key;
+        private final float similarity;
+
+        private Match(String key, float similarity) {
+            this.key = key;
+            this.similarity = similarity;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public float getSimilarity() {
+            return similarity;
+        }
+    }
+
+    private static final class Node {
+        private final int id;
+        private final String key;
+        private final float[] vector;
+        private final int level;
+        private final int[][] neighbours;
+        private final int[] neighbourCount;
+        private boolean removed;
+
+        private Node(int id, String key, float[] vector, int level) {
+            this.id = id;
+            this.key = key;
+            this.vector = vector;
+            this.level = level;
+            this.neighbours = new int[level + 1][];
+            this.neighbourCount = new int[level + 1];
+            for (int l = 0; l <= level; l++) {
+                neighbours[l] = new int[4];
+            }
+        }
+
+        private void connect(int level, Node other) {
+            if (neighbourCount[level] == neighbours[level].length) {
+                neighbours[level] = Arrays.copyOf(neighbours[level], neighbours[level].length * 2);
+            }
+            neighbours[level][neighbourCount[level]++] = other.id;
+        }
+    }
+
+    private static final class Candidate {
+        private final Node node;
+        private final float similarity;
+
+        private Candidate(Node node, float similarity) {
+            this.node = node;
+            this.similarity = similarity;
+        }
+    }
+}
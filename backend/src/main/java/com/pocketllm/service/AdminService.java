@@ -2,15 +2,17 @@ package com.pocketllm.service;
 
 import com.pocketllm.model.dto.AdminStatsDTO;
 import com.pocketllm.model.dto.ChatStatsDTO;
-import com.pocketllm.model.entity.ChatHistory;
 import com.pocketllm.repository.ChatHistoryRepository;
 import com.pocketllm.repository.ChatRepository;
+import com.pocketllm.repository.ChatStatsRepository;
 import com.pocketllm.repository.QueryCacheRepository;
-import com.pocketllm.repository.UserRepository;
+import com.pocketllm.util.AfterCommit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,92 +20,125 @@ import java.util.Map;
 @Service
 public class AdminService {
 
-    private final UserRepository userRepository;
+    // Sort options of the admin chat list -> ChatStats property (each has an index, see V2__chat_stats)
+    private static final Map<String, String> CHAT_SORTS = Map.of(
+            "created", "createdAt",
+            "lastActivity", "lastActivityAt",
+            "messages", "messageCount",
+            "size", "sizeBytes",
+            "tokens", "tokenCount");
+
     private final ChatRepository chatRepository;
     private final ChatHistoryRepository chatHistoryRepository;
+    private final ChatStatsRepository chatStatsRepository;
     private final QueryCacheRepository queryCacheRepository;
+    private final ChatContextAssembler contextAssembler;
+    private final QueryCacheService queryCacheService;
+    private final QueryCacheHitBuffer hitBuffer;
+    private final ContentBlobService contentBlobService;
+    private final ChatHistoryWriter historyWriter;
+    private final ChatOwnershipIndex ownershipIndex;
+    private final UsageStats usageStats;
 
     public AdminService(
-            UserRepository userRepository,
             ChatRepository chatRepository,
             ChatHistoryRepository chatHistoryRepository,
-            QueryCacheRepository queryCacheRepository) {
-        this.userRepository = userRepository;
+            ChatStatsRepository chatStatsRepository,
+            QueryCacheRepository queryCacheRepository,
+            ChatContextAssembler contextAssembler,
+            QueryCacheService queryCacheService,
+            QueryCacheHitBuffer hitBuffer,
+            ContentBlobService contentBlobService,
+            ChatHistoryWriter historyWriter,
+            ChatOwnershipIndex ownershipIndex,
+            UsageStats usageStats) {
         this.chatRepository = chatRepository;
         this.chatHistoryRepository = chatHistoryRepository;
+        this.chatStatsRepository = chatStatsRepository;
         this.queryCacheRepository = queryCacheRepository;
+        this.contextAssembler = contextAssembler;
+        this.queryCacheService = queryCacheService;
+        this.hitBuffer = hitBuffer;
+        this.contentBlobService = contentBlobService;
+        this.historyWriter = historyWriter;
+        this.ownershipIndex = ownershipIndex;
+        this.usageStats = usageStats;
     }
 
+    /**
+     * Dashboard numbers read from the counters kept by {@link UsageStats}; only the top cached
+     * queries touch the table, through the hit count index
+     */
     public AdminStatsDTO getStats() {
-        long totalUsers = userRepository.count();
-        long totalConversations = chatRepository.count();
-        long totalMessages = chatHistoryRepository.count();
-
-        long cacheEntries = queryCacheRepository.count();
-        Integer hitSum = queryCacheRepository.sumTotalHits();
-        long totalCacheHits = hitSum == null ? 0 : hitSum;
-
-        // Cache misses = rows with hitCount = 0
-        Integer missSum = queryCacheRepository.countMisses();
-        long totalCacheMisses = missSum == null ? 0 : missSum;
-
+        long totalCacheHits = usageStats.getCacheHits();
+        long totalCacheMisses = usageStats.getCacheMisses();
         double hitRate = (totalCacheHits + totalCacheMisses) == 0
                 ? 0
                 : (double) totalCacheHits / (totalCacheHits + totalCacheMisses);
 
-        long messagesToday = chatHistoryRepository.countByTimestampAfter(LocalDateTime.now().minusDays(1));
-
-        // active conversations = last 1 hour
-        long activeConversations = chatHistoryRepository.findAll().stream()
-                .filter(h -> h.getTimestamp().isAfter(LocalDateTime.now().minusHours(1)))
-                .map(ChatHistory::getChatId)
-                .distinct()
-                .count();
+        // Hits not yet written to the table are added in, so the ranking does not lag behind
+        Map<String, Long> pendingHits = hitBuffer.pendingHits();
 
-        // cache size = all llmResponses length sum
-        long cacheSize = queryCacheRepository.findAll().stream()
-                .mapToLong(c -> c.getLlmResponse().length())
-                .sum();
+        // cache size = bytes of all cached answers, tracked as entries are added and evicted
+        long cacheSize = queryCacheService.getTotalBytes();
 
         // top cached queries
         List<Map<String, Object>> topQueries = queryCacheRepository.findTop10ByOrderByHitCountDesc()
                 .stream()
+                .sorted(Comparator.comparingLong(
+                        q -> -(q.getHitCount() + pendingHits.getOrDefault(q.getQueryHash(), 0L))))
                 .map(q -> {
                     Map<String, Object> m = new HashMap<>();
                     m.put("query", q.getUserQuery());
-                    m.put("hits", q.getHitCount());
+                    m.put("hits", q.getHitCount() + pendingHits.getOrDefault(q.getQueryHash(), 0L));
                     return m;
                 })
                 .toList();
 
         return AdminStatsDTO.builder()
-                .totalUsers(totalUsers)
-                .totalConversations(totalConversations)
-                .totalMessages(totalMessages)
-                .cacheEntries(cacheEntries)
+                .totalUsers(usageStats.getUsers())
+                .totalConversations(usageStats.getChats())
+                .totalMessages(usageStats.getMessages())
+                .cacheEntries(queryCacheService.getEntryCount())
                 .cacheHitRate(hitRate)
                 .totalCacheHits(totalCacheHits)
                 .totalCacheMisses(totalCacheMisses)
-                .messagesToday(messagesToday)
-                .activeConversations(activeConversations)
+                .messagesToday(usageStats.getMessagesLast24Hours())
+                .activeConversations(usageStats.getActiveConversations())
                 .avgResponseTime(null)
                 .cacheSize(cacheSize)
                 .topCachedQueries(topQueries)
                 .build();
     }
 
-    public List<ChatStatsDTO> getChatStats() {
-        return chatRepository.findAllChatStats();
+    /**
+     * One page of the admin chat list, read from chat_stats. sort is one of {@link #CHAT_SORTS};
+     * ties are broken by chat id.
+     */
+    public List<ChatStatsDTO> getChatStats(int page, int size, String sort, boolean ascending) {
+        String property = CHAT_SORTS.get(sort);
+        if (property == null) {
+            throw new IllegalArgumentException("Unknown sort: " + sort);
+        }
+        Sort.Direction direction = ascending ? Sort.Direction.ASC : Sort.Direction.DESC;
+        return chatStatsRepository.findPage(PageRequest.of(page, size, Sort.by(direction, property, "chatId")));
     }
 
     @Transactional
     public void deleteChat(String chatId) {
-        chatHistoryRepository.deleteByChatId(chatId);
-        chatRepository.deleteByChatId(chatId);
+        historyWriter.awaitPending(chatId);
+        List<String> contentHashes = chatHistoryRepository.findContentHashesByChatId(chatId);
+        long messages = chatHistoryRepository.deleteByChatId(chatId);
+        contentBlobService.release(contentHashes);
+        chatStatsRepository.deleteByChatId(chatId);
+        if (chatRepository.deleteByChatId(chatId) > 0) {
+            AfterCommit.run(() -> usageStats.chatDeleted(chatId, messages));
+        }
+        ownershipIndex.invalidate(chatId);
+        contextAssembler.invalidate(chatId);
     }
 
-    @Transactional
     public void deleteCache() {
-        queryCacheRepository.deleteAll();
+        queryCacheService.clear();
     }
 }
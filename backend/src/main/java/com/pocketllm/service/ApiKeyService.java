@@ -22,12 +22,13 @@ public class ApiKeyService {
     private final SecureRandom secureRandom = new SecureRandom();
 
     @Transactional
-    public ApiKeyResponse createKey(String userId, String keyName) {
+    public ApiKeyResponse createKey(String userId, String keyName, boolean cacheSampledResponses) {
         String plaintextKey = generateRawKey();
         ApiKey apiKey = ApiKey.builder()
                 .userId(userId)
                 .keyName(keyName)
                 .secret(plaintextKey)
+                .cacheSampledResponses(cacheSampledResponses)
                 .build();
         ApiKey saved = apiKeyRepository.save(apiKey);
         log.info("API key created for user={} keyId={}", userId, saved.getUuid());
@@ -64,6 +65,7 @@ public class ApiKeyService {
                 .apiKey(apiKey.getSecret())
                 .createdAt(apiKey.getCreatedAt())
                 .lastUsedAt(apiKey.getLastUsedAt())
+                .cacheSampledResponses(Boolean.TRUE.equals(apiKey.getCacheSampledResponses()))
                 .build();
     }
 }
@@ -10,10 +10,12 @@ public class AuthService {
 
     private final UserRepository userRepository;
     private final SessionStore sessionStore;
+    private final UsageStats usageStats;
 
-    public AuthService(UserRepository userRepository, SessionStore sessionStore) {
+    public AuthService(UserRepository userRepository, SessionStore sessionStore, UsageStats usageStats) {
         this.userRepository = userRepository;
         this.sessionStore = sessionStore;
+        this.usageStats = usageStats;
     }
 
     public String signUp(String email, String password) {
@@ -25,6 +27,7 @@ public class AuthService {
         user.setEmail(email);
         user.setPassword(password); // TODO: encrypt later
         userRepository.save(user);
+        usageStats.userCreated();
 
         return sessionStore.createSession(user.getUuid());
     }
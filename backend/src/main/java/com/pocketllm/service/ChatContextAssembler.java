@@ -0,0 +1,299 @@
+package com.pocketllm.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.pocketllm.llm.LlmClient;
+import com.pocketllm.llm.LlmPriority;
+import com.pocketllm.llm.LlmRequest;
+import com.pocketllm.llm.Tokenizer;
+import com.pocketllm.model.entity.Chat;
+import com.pocketllm.model.entity.ChatHistory;
+import com.pocketllm.repository.ChatHistoryRepository;
+import com.pocketllm.repository.ChatRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the message list sent to the LLM for a chat turn. Each chat's recent turns are kept in
+ * memory and updated as messages are saved, so assembling a prompt costs the same no matter how
+ * long the chat is; the database is read only when a chat is not cached yet. Turns are taken
+ * newest first until the token budget (model context minus room for the answer) is used up.
+ * Optionally, turns that fall out of the window, past max-turns or cut by the token budget, are
+ * folded into a rolling summary in the background and sent as a system message.
+ */
+@Component
+@Slf4j
+public class ChatContextAssembler {
+
+    private static final String SUMMARY_INSTRUCTION =
+            "Summarize the conversation below in a few sentences, keeping facts, names and decisions "
+                    + "the assistant may need later. Reply with the summary only.";
+
+    private final ChatHistoryRepository chatHistoryRepository;
+    private final ChatRepository chatRepository;
+    private final ChatHistoryWriter historyWriter;
+    private final LlmClient llmClient;
+    private final Tokenizer tokenizer;
+    private final Cache<String, ChatContext> contexts;
+
+    private final int maxTurns;
+    private final int promptBudget;
+    private final boolean summarize;
+    private final int summaryBatchTokens;
+
+    public ChatContextAssembler(ChatHistoryRepository chatHistoryRepository,
+                                ChatRepository chatRepository,
+                                ChatHistoryWriter historyWriter,
+                                LlmClient llmClient,
+                                Tokenizer tokenizer,
+                                @Value("${llm.context.window-tokens:4096}") int windowTokens,
+                                @Value("${llm.context.reserved-tokens:256}") int reservedTokens,
+                                @Value("${llm.context.max-turns:32}") int maxTurns,
+                                @Value("${llm.context.cache-size:10000}") long cacheSize,
+                                @Value("${llm.context.summarize:false}") boolean summarize,
+                                @Value("${llm.context.summary-batch-tokens:512}") int summaryBatchTokens) {
+        this.chatHistoryRepository = chatHistoryRepository;
+        this.chatRepository = chatRepository;
+        this.historyWriter = historyWriter;
+        this.llmClient = llmClient;
+        this.tokenizer = tokenizer;
+        this.maxTurns = maxTurns;
+        this.promptBudget = windowTokens - reservedTokens;
+        this.summarize = summarize;
+        this.summaryBatchTokens = summaryBatchTokens;
+        this.contexts = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .build();
+    }
+
+    /**
+     * Messages for the next completion of chatId, ending with the latest saved user message
+     */
+    public List<Map<String, String>> assemble(String chatId) {
+        ChatContext context = contexts.get(chatId, this::load);
+        List<Map<String, String>> messages;
+        List<Turn> toSummarize = null;
+        synchronized (context) {
+            int budget = promptBudget;
+            String summary = context.summary;
+            if (summary != null) {
+                budget -= tokenizer.countTokens(summary);
+            }
+
+            // Newest first; the latest turn is always included even if it alone exceeds the budget
+            Deque<Turn> selected = new ArrayDeque<>();
+            Iterator<Turn> newestFirst = context.turns.descendingIterator();
+            while (newestFirst.hasNext()) {
+                Turn turn = newestFirst.next();
+                if (!selected.isEmpty() && turn.tokens > budget) {
+                    break;
+                }
+                budget -= turn.tokens;
+                selected.addFirst(turn);
+            }
+
+            messages = new ArrayList<>(selected.size() + 1);
+            if (summary != null) {
+                messages.add(Map.of("role", "system", "content", "Conversation so far: " + summary));
+            }
+            for (Turn turn : selected) {
+                messages.add(Map.of("role", turn.role, "content", turn.content));
+            }
+
+            if (summarize) {
+                // Turns cut by the budget only get older, so they are not sent again: summarize them too
+                while (context.turns.size() > selected.size()) {
+                    retire(context, context.turns.removeFirst());
+                }
+                toSummarize = takeSummaryBatch(context);
+            }
+        }
+        if (toSummarize != null) {
+            summarizeInBackground(chatId, context, toSummarize);
+        }
+        return messages;
+    }
+
+    /**
+     * Whether the chat already has turns (or a summary) that would be sent along with a new message
+     */
+    public boolean hasHistory(String chatId) {
+        ChatContext context = contexts.get(chatId, this::load);
+        synchronized (context) {
+            return !context.turns.isEmpty() || context.summary != null;
+        }
+    }
+
+    /**
+     * Record a saved message in the chat's window (no-op if the chat is not cached; it will be
+     * loaded with this message included)
+     */
+    public void append(ChatHistory message) {
+        ChatContext context = contexts.getIfPresent(message.getChatId());
+        if (context == null) {
+            return;
+        }
+        Turn turn = toTurn(message);
+        if (turn == null) {
+            return;
+        }
+        List<Turn> toSummarize = null;
+        synchronized (context) {
+            context.turns.addLast(turn);
+            while (context.turns.size() > maxTurns) {
+                retire(context, context.turns.removeFirst());
+            }
+            toSummarize = takeSummaryBatch(context);
+        }
+        if (toSummarize != null) {
+            summarizeInBackground(message.getChatId(), context, toSummarize);
+        }
+    }
+
+    public void invalidate(String chatId) {
+        contexts.invalidate(chatId);
+    }
+
+    /**
+     * Tokens the content of a saved message takes up in a prompt
+     */
+    public int countTokens(String content) {
+        return tokenizer.countTokens(stripCachedPrefix(content));
+    }
+
+    private ChatContext load(String chatId) {
+        ChatContext context = new ChatContext();
+        context.summary = chatRepository.findByChatId(chatId).map(Chat::getSummary).orElse(null);
+        // Messages still queued in the history writer are part of the chat too
+        List<ChatHistory> oldestFirst = historyWriter.withPending(chatId, () -> {
+            List<ChatHistory> newestFirst = new ArrayList<>(
+                    chatHistoryRepository.findByChatIdOrderByTimestampDesc(chatId, PageRequest.of(0, maxTurns)));
+            Collections.reverse(newestFirst);
+            return newestFirst;
+        });
+        for (ChatHistory message : oldestFirst) {
+            Turn turn = toTurn(message);
+            if (turn != null) {
+                context.turns.addLast(turn);
+            }
+        }
+        while (context.turns.size() > maxTurns) {
+            context.turns.removeFirst();
+        }
+        return context;
+    }
+
+    /**
+     * A turn left the window; keep it for the next summary if summaries are on (context locked)
+     */
+    private void retire(ChatContext context, Turn turn) {
+        if (summarize) {
+            context.unsummarized.add(turn);
+            context.unsummarizedTokens += turn.tokens;
+        }
+    }
+
+    /**
+     * Retired turns to summarize now, or null while too few have piled up or a summary is running
+     * (context locked)
+     */
+    private List<Turn> takeSummaryBatch(ChatContext context) {
+        if (!summarize || context.summarizing || context.unsummarizedTokens < summaryBatchTokens) {
+            return null;
+        }
+        List<Turn> batch = new ArrayList<>(context.unsummarized);
+        context.unsummarized.clear();
+        context.unsummarizedTokens = 0;
+        context.summarizing = true;
+        return batch;
+    }
+
+    private void summarizeInBackground(String chatId, ChatContext context, List<Turn> turns) {
+        StringBuilder transcript = new StringBuilder();
+        String previous;
+        synchronized (context) {
+            previous = context.summary;
+        }
+        if (previous != null) {
+            transcript.append("Earlier summary: ").append(previous).append('\n');
+        }
+        for (Turn turn : turns) {
+            transcript.append(turn.role).append(": ").append(turn.content).append('\n');
+        }
+
+        LlmRequest request = LlmRequest.builder()
+                .messages(List.of(
+                        Map.of("role", "system", "content", SUMMARY_INSTRUCTION),
+                        Map.of("role", "user", "content", transcript.toString())))
+                .priority(LlmPriority.BACKGROUND)
+                .tenant("summary")
+                .build();
+        llmClient.sendMessageAsync(request).whenComplete((summary, ex) -> {
+            boolean ok = ex == null && !LlmClient.isErrorResponse(summary);
+            synchronized (context) {
+                context.summarizing = false;
+                if (ok) {
+                    context.summary = summary;
+                } else {
+                    // Keep the turns for the next attempt
+                    context.unsummarized.addAll(0, turns);
+                    context.unsummarizedTokens += turns.stream().mapToInt(t -> t.tokens).sum();
+                }
+            }
+            if (ok) {
+                chatRepository.updateSummary(chatId, summary);
+            } else {
+                log.debug("Summary for chat {} not updated: {}", chatId, ex != null ? ex.getMessage() : summary);
+            }
+        });
+    }
+
+    private Turn toTurn(ChatHistory message) {
+        String content = message.isFromUser() ? message.getContent() : stripCachedPrefix(message.getContent());
+        // Failed generations are stored in history but are not part of the conversation
+        if (!message.isFromUser() && LlmClient.isErrorResponse(content)) {
+            return null;
+        }
+        int tokens = message.getTokenCount() != null ? message.getTokenCount() : tokenizer.countTokens(content);
+        return new Turn(message.isFromUser() ? "user" : "assistant", content, tokens);
+    }
+
+    /**
+     * Answers saved before ChatHistory.fromCache existed carry the cache marker in their text
+     */
+    private static String stripCachedPrefix(String content) {
+        return content.startsWith(ChatHistory.CACHED_PREFIX)
+                ? content.substring(ChatHistory.CACHED_PREFIX.length())
+                : content;
+    }
+
+    private static final class ChatContext {
+        private final Deque<Turn> turns = new ArrayDeque<>();
+        private final List<Turn> unsummarized = new ArrayList<>();
+        private int unsummarizedTokens;
+        private boolean summarizing;
+        private String summary;
+    }
+
+    private static final class Turn {
+        private final String role;
+        private final String content;
+        private final int tokens;
+
+        private Turn(String role, String content, int tokens) {
+            this.role = role;
+            this.content = content;
+            this.tokens = tokens;
+        }
+    }
+}
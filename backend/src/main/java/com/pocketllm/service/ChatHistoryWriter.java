@@ -0,0 +1,354 @@
+package com.pocketllm.service;
+
+import com.pocketllm.model.entity.ChatHistory;
+import com.pocketllm.model.entity.ContentBlob;
+import com.pocketllm.repository.ChatHistoryRepository;
+import com.pocketllm.repository.ChatRepository;
+import com.pocketllm.repository.ChatStatsRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Group commit for chat history. Messages are queued in memory and a single writer thread inserts
+ * them in batches, one transaction per batch, as soon as batch-size messages are waiting or
+ * flush-interval has passed since the first one. One FIFO queue and one writer keep every chat's
+ * messages in the order they were saved. Callers get a future that completes once their message
+ * is committed; unflushed messages are merged into reads of their chat (read-your-writes). The
+ * chats' chat_stats totals are updated in the same transaction. Messages for a chat deleted while
+ * they were queued are dropped and their futures fail with IllegalArgumentException.
+ * Metrics: pocketllm.history.batch (messages per commit), pocketllm.history.commit,
+ * pocketllm.history.pending
+ */
+@Component
+@Slf4j
+public class ChatHistoryWriter {
+
+    private final ChatHistoryRepository chatHistoryRepository;
+    private final ChatRepository chatRepository;
+    private final ChatStatsRepository chatStatsRepository;
+    private final ContentBlobService contentBlobService;
+    private final UsageStats usageStats;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor callbackExecutor;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+
+    private final BlockingQueue<PendingMessage> queue = new LinkedBlockingQueue<>();
+    private final Map<String, List<PendingMessage>> pendingByChat = new ConcurrentHashMap<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final DistributionSummary batchSizes;
+    private final Timer commitTimer;
+
+    public ChatHistoryWriter(ChatHistoryRepository chatHistoryRepository,
+                             ChatRepository chatRepository,
+                             ChatStatsRepository chatStatsRepository,
+                             ContentBlobService contentBlobService,
+                             UsageStats usageStats,
+                             PlatformTransactionManager transactionManager,
+                             @Qualifier("llmExecutor") Executor callbackExecutor,
+                             MeterRegistry meterRegistry,
+                             @Value("${chat-history.writer.batch-size:256}") int batchSize,
+                             @Value("${chat-history.writer.flush-interval:10ms}") Duration flushInterval) {
+        this.chatHistoryRepository = chatHistoryRepository;
+        this.chatRepository = chatRepository;
+        this.chatStatsRepository = chatStatsRepository;
+        this.contentBlobService = contentBlobService;
+        this.usageStats = usageStats;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.callbackExecutor = callbackExecutor;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.batchSizes = DistributionSummary.builder("pocketllm.history.batch")
+                .description("Chat messages inserted per transaction")
+                .register(meterRegistry);
+        this.commitTimer = Timer.builder("pocketllm.history.commit")
+                .description("Time to insert and commit one batch of chat messages")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.history.pending", queue, BlockingQueue::size)
+                .description("Chat messages waiting to be written")
+                .register(meterRegistry);
+
+        this.writer = new Thread(this::run, "history-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue a message (content inline, id not set); completes with the stored row once committed
+     */
+    public CompletableFuture<ChatHistory> append(ChatHistory message) {
+        PendingMessage pending = new PendingMessage(message);
+        // Queued under the chat's lock, so the per-chat list and the queue agree on order
+        pendingByChat.compute(message.getChatId(), (chatId, messages) -> {
+            List<PendingMessage> list = messages != null ? messages : new ArrayList<>();
+            list.add(pending);
+            queue.add(pending);
+            return list;
+        });
+        return pending.committed;
+    }
+
+    /**
+     * Committed messages of a chat (oldest first, as returned by committedOldestFirst) followed by
+     * the ones still waiting to be written
+     */
+    public List<ChatHistory> withPending(String chatId, Supplier<List<ChatHistory>> committedOldestFirst) {
+        // Pending first: a message committed in between is then found in the table and skipped here
+        List<PendingMessage> pending = pendingSnapshot(chatId);
+        List<ChatHistory> committed = committedOldestFirst.get();
+        if (pending.isEmpty()) {
+            return committed;
+        }
+        Set<Long> committedIds = new HashSet<>();
+        for (ChatHistory message : committed) {
+            committedIds.add(message.getId());
+        }
+        List<ChatHistory> merged = new ArrayList<>(committed);
+        for (PendingMessage message : pending) {
+            if (message.committing) {
+                // Its batch may have committed before the read above without being done() yet:
+                // wait for the outcome, so storedId tells whether the read already has the row
+                awaitCommit(message);
+            }
+            Long id = message.storedId;
+            if (id == null || !committedIds.contains(id)) {
+                merged.add(message.message);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Wait until every message queued so far for the chat is written (before deleting it)
+     */
+    public void awaitPending(String chatId) {
+        for (PendingMessage message : pendingSnapshot(chatId)) {
+            awaitCommit(message);
+        }
+    }
+
+    private static void awaitCommit(PendingMessage message) {
+        // Failed writes are logged by the writer and leave nothing behind
+        message.settled.join();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        if (!queue.isEmpty()) {
+            log.warn("{} chat messages were not written before shutdown", queue.size());
+        }
+    }
+
+    private List<PendingMessage> pendingSnapshot(String chatId) {
+        List<PendingMessage> snapshot = new ArrayList<>();
+        pendingByChat.computeIfPresent(chatId, (id, messages) -> {
+            snapshot.addAll(messages);
+            return messages;
+        });
+        return snapshot;
+    }
+
+    private void run() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    long wait = deadline - System.nanoTime();
+                    PendingMessage next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Chat history writer failed", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingMessage> batch) {
+        for (PendingMessage message : batch) {
+            message.committing = true;
+        }
+        List<ChatHistory> stored = new ArrayList<>(batch.size());
+        try {
+            commitTimer.record(() -> transactionTemplate.executeWithoutResult(status -> {
+                stored.addAll(insertAll(batch));
+                addStats(stored);
+            }));
+            batchSizes.record(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                done(batch.get(i), stored.get(i), stored.get(i) == null ? chatDeleted() : null);
+            }
+        } catch (RuntimeException batchFailure) {
+            // Retry one by one, so a single bad message does not take the batch down with it
+            for (PendingMessage message : batch) {
+                try {
+                    ChatHistory saved = transactionTemplate.execute(status -> {
+                        List<ChatHistory> one = insertAll(List.of(message));
+                        addStats(one);
+                        return one.get(0);
+                    });
+                    done(message, saved, saved == null ? chatDeleted() : null);
+                } catch (RuntimeException e) {
+                    log.warn("Could not save message for chat {}: {}", message.message.getChatId(), e.getMessage());
+                    done(message, null, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Insert the messages whose chat still exists, null in place of the others. A chat deleted after
+     * the message was queued (its ownership check passed before the delete committed) gets no orphan
+     * rows: all writes go through the one writer connection, so no delete can commit between this
+     * check and the inserts.
+     */
+    private List<ChatHistory> insertAll(List<PendingMessage> messages) {
+        Set<String> chatIds = new HashSet<>();
+        for (PendingMessage message : messages) {
+            chatIds.add(message.message.getChatId());
+        }
+        Set<String> existing = new HashSet<>(chatRepository.findExistingChatIds(chatIds));
+        List<ChatHistory> stored = new ArrayList<>(messages.size());
+        for (PendingMessage message : messages) {
+            stored.add(existing.contains(message.message.getChatId()) ? insert(message) : null);
+        }
+        return stored;
+    }
+
+    private static IllegalArgumentException chatDeleted() {
+        return new IllegalArgumentException("Chat not found or access denied");
+    }
+
+    /**
+     * Insert a copy, so readers of the queued message never see it half converted; answers go to
+     * a shared content blob
+     */
+    private ChatHistory insert(PendingMessage pending) {
+        ChatHistory message = pending.message;
+        ContentBlob blob = message.isFromUser() ? null : contentBlobService.acquire(message.getContent());
+        ChatHistory saved = chatHistoryRepository.save(ChatHistory.builder()
+                .chatId(message.getChatId())
+                .content(blob != null ? "" : message.getContent())
+                .blob(blob)
+                .contentLength(message.getContentLength())
+                .fromUser(message.isFromUser())
+                .timestamp(message.getTimestamp())
+                .tokenCount(message.getTokenCount())
+                .fromCache(message.getFromCache())
+                .build());
+        return saved;
+    }
+
+    /**
+     * One chat_stats update per chat in the batch (null: dropped message)
+     */
+    private void addStats(List<ChatHistory> stored) {
+        Map<String, ChatTotals> totals = new LinkedHashMap<>();
+        for (ChatHistory message : stored) {
+            if (message == null) {
+                continue;
+            }
+            totals.computeIfAbsent(message.getChatId(), chatId -> new ChatTotals()).add(message);
+        }
+        totals.forEach((chatId, chat) -> chatStatsRepository.addMessages(
+                chatId, chat.messages, chat.sizeBytes, chat.tokens, chat.lastActivityAt));
+    }
+
+    /**
+     * Called once the message's transaction has committed (or failed for good)
+     */
+    private void done(PendingMessage message, ChatHistory stored, Throwable failure) {
+        if (stored != null) {
+            message.storedId = stored.getId();
+            message.message.setId(stored.getId());
+            usageStats.messageSaved(stored.getChatId(), stored.getTimestamp());
+        }
+        pendingByChat.computeIfPresent(message.message.getChatId(), (chatId, messages) -> {
+            messages.remove(message);
+            return messages.isEmpty() ? null : messages;
+        });
+        message.settled.complete(null);
+        // Callers chain their replies (SSE sends included) on committed: run them off the writer thread
+        Runnable complete = failure != null
+                ? () -> message.committed.completeExceptionally(failure)
+                : () -> message.committed.complete(stored);
+        try {
+            callbackExecutor.execute(complete);
+        } catch (RejectedExecutionException e) {
+            complete.run();
+        }
+    }
+
+    private static final class ChatTotals {
+        private long messages;
+        private long sizeBytes;
+        private long tokens;
+        private LocalDateTime lastActivityAt;
+
+        private void add(ChatHistory message) {
+            messages++;
+            sizeBytes += message.getContentLength() != null ? message.getContentLength() : message.getContent().length();
+            tokens += message.getTokenCount() != null ? message.getTokenCount() : 0;
+            if (lastActivityAt == null || message.getTimestamp().isAfter(lastActivityAt)) {
+                lastActivityAt = message.getTimestamp();
+            }
+        }
+    }
+
+    private static final class PendingMessage {
+        private final ChatHistory message;
+        private final CompletableFuture<ChatHistory> committed = new CompletableFuture<>();
+        // Completed on the writer thread with the outcome; only joined, never chained on
+        private final CompletableFuture<Void> settled = new CompletableFuture<>();
+        private volatile boolean committing; // in a batch the writer has started to insert
+        private volatile Long storedId; // set once committed
+
+        private PendingMessage(ChatHistory message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.pocketllm.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.pocketllm.model.entity.Chat;
+import com.pocketllm.repository.ChatRepository;
+import com.pocketllm.util.AfterCommit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * chatId -> owner userId, so authorizing a chat request does not query the database. Owners are
+ * loaded on first use and registered when a chat is created; deleting a chat removes its entry.
+ * A chat's owner never changes, so entries only leave by deletion or size-bounded eviction.
+ * Unknown chats are not remembered and are looked up again on every check. Inside a transaction,
+ * register and invalidate take effect once it commits, so a check running meanwhile cannot cache
+ * the state from before the commit.
+ */
+@Component
+public class ChatOwnershipIndex {
+
+    private final ChatRepository chatRepository;
+    private final Cache<String, String> owners;
+
+    public ChatOwnershipIndex(ChatRepository chatRepository,
+                              @Value("${chat-ownership.cache-size:100000}") long cacheSize) {
+        this.chatRepository = chatRepository;
+        this.owners = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .build();
+    }
+
+    public boolean isOwner(String chatId, String userId) {
+        String owner = owners.get(chatId, id -> chatRepository.findUserIdByChatId(id).orElse(null));
+        return owner != null && owner.equals(userId);
+    }
+
+    public void register(Chat chat) {
+        AfterCommit.run(() -> owners.put(chat.getChatId(), chat.getUserId()));
+    }
+
+    public void invalidate(String chatId) {
+        owners.invalidate(chatId);
+        // Again after the commit: a check in between may have reloaded the chat from before the delete
+        AfterCommit.run(() -> owners.invalidate(chatId));
+    }
+}
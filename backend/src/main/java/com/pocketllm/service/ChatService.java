@@ -1,39 +1,90 @@
 package com.pocketllm.service;
 
+import com.pocketllm.model.dto.KeysetPage;
 import com.pocketllm.model.entity.Chat;
 import com.pocketllm.model.entity.ChatHistory;
-import com.pocketllm.model.entity.QueryCache;
+import com.pocketllm.model.entity.ChatStats;
 import com.pocketllm.repository.ChatRepository;
 import com.pocketllm.repository.ChatHistoryRepository;
-import com.pocketllm.repository.QueryCacheRepository;
+import com.pocketllm.repository.ChatStatsRepository;
 import com.pocketllm.llm.LlmClient;
+import com.pocketllm.llm.LlmPriority;
+import com.pocketllm.llm.LlmRequest;
+import com.pocketllm.llm.LlmScheduler;
+import com.pocketllm.llm.SingleFlight;
+import com.pocketllm.util.AfterCommit;
+import com.pocketllm.util.KeysetCursor;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
+@Slf4j
 public class ChatService {
 
     private final ChatRepository chatRepository;
     private final ChatHistoryRepository chatHistoryRepository;
-    private final QueryCacheRepository queryCacheRepository;
+    private final ChatStatsRepository chatStatsRepository;
+    private final QueryCacheService queryCacheService;
+    private final QueryCanonicalizer queryCanonicalizer;
     private final LlmClient llmClient;
+    private final LlmScheduler llmScheduler;
+    private final SingleFlight singleFlight;
+    private final ChatContextAssembler contextAssembler;
+    private final Executor llmExecutor;
+    private final ContentBlobService contentBlobService;
+    private final ChatHistoryWriter historyWriter;
+    private final ChatOwnershipIndex ownershipIndex;
+    private final EntityManager entityManager;
+    private final UsageStats usageStats;
 
     public ChatService(ChatRepository chatRepository,
                        ChatHistoryRepository chatHistoryRepository,
-                       QueryCacheRepository queryCacheRepository,
-                       LlmClient llmClient) {
+                       ChatStatsRepository chatStatsRepository,
+                       QueryCacheService queryCacheService,
+                       QueryCanonicalizer queryCanonicalizer,
+                       LlmClient llmClient,
+                       LlmScheduler llmScheduler,
+                       SingleFlight singleFlight,
+                       ChatContextAssembler contextAssembler,
+                       @Qualifier("llmExecutor") Executor llmExecutor,
+                       ContentBlobService contentBlobService,
+                       ChatHistoryWriter historyWriter,
+                       ChatOwnershipIndex ownershipIndex,
+                       EntityManager entityManager,
+                       UsageStats usageStats) {
         this.chatRepository = chatRepository;
         this.chatHistoryRepository = chatHistoryRepository;
-        this.queryCacheRepository = queryCacheRepository;
+        this.chatStatsRepository = chatStatsRepository;
+        this.queryCacheService = queryCacheService;
+        this.queryCanonicalizer = queryCanonicalizer;
         this.llmClient = llmClient;
+        this.llmScheduler = llmScheduler;
+        this.singleFlight = singleFlight;
+        this.contextAssembler = contextAssembler;
+        this.llmExecutor = llmExecutor;
+        this.contentBlobService = contentBlobService;
+        this.historyWriter = historyWriter;
+        this.ownershipIndex = ownershipIndex;
+        this.entityManager = entityManager;
+        this.usageStats = usageStats;
     }
 
     /**
-     * Create a new chat for a user
+     * Create a new chat for a user, with its empty chat_stats row
      */
+    @Transactional
     public Chat createChat(String userId, String title) {
         Chat chat = Chat.builder()
                 .userId(userId)
@@ -41,7 +92,14 @@ public class ChatService {
                 .chatId(UUID.randomUUID().toString())
                 .createdAt(LocalDateTime.now())
                 .build();
-        return chatRepository.save(chat);
+        Chat saved = chatRepository.save(chat);
+        chatStatsRepository.save(ChatStats.builder()
+                .chatId(saved.getChatId())
+                .createdAt(saved.getCreatedAt())
+                .build());
+        ownershipIndex.register(saved);
+        AfterCommit.run(usageStats::chatCreated);
+        return saved;
     }
 
     /**
@@ -55,100 +113,254 @@ public class ChatService {
      * Get chat history by chatId for a specific user (ownership check)
      */
     public List<ChatHistory> getChatHistoryForUser(String userId, String chatId) {
-        if (!chatRepository.existsByChatIdAndUserId(chatId, userId)) {
+        if (!ownershipIndex.isOwner(chatId, userId)) {
             throw new IllegalArgumentException("Chat not found or access denied");
         }
-        return chatHistoryRepository.findByChatIdOrderByTimestampAsc(chatId);
+        // Includes messages still queued in the history writer
+        return historyWriter.withPending(chatId, () -> chatHistoryRepository.findByChatIdOrderByTimestampAsc(chatId));
     }
 
     /**
-     * Save a message in chat history for a chat owned by the user (ownership check)
+     * One page of a chat's history, oldest first: the latest messages, or the ones before or after
+     * a cursor (ownership check). Pages hold committed messages only; a sent message's reply is
+     * answered after both are committed, so they are in the next page read.
      */
-    public ChatHistory saveMessageForUser(String userId, String chatId, String content, boolean fromUser) {
-        if (!chatRepository.existsByChatIdAndUserId(chatId, userId)) {
+    public KeysetPage<ChatHistory> getChatHistoryPage(String userId, String chatId, KeysetCursor before,
+                                                      KeysetCursor after, int limit) {
+        if (!ownershipIndex.isOwner(chatId, userId)) {
             throw new IllegalArgumentException("Chat not found or access denied");
         }
+        Pageable page = PageRequest.of(0, limit + 1);
+        if (after != null) {
+            List<ChatHistory> rows = chatHistoryRepository.findPageAfter(chatId, after.getTimestamp(), after.getId(), page);
+            List<ChatHistory> items = rows.size() > limit ? rows.subList(0, limit) : rows;
+            return items.isEmpty()
+                    ? new KeysetPage<>(items, null, after.encode())
+                    : new KeysetPage<>(items, cursor(items.get(0)), cursor(items.get(items.size() - 1)));
+        }
+        List<ChatHistory> rows = before != null
+                ? chatHistoryRepository.findPageBefore(chatId, before.getTimestamp(), before.getId(), page)
+                : chatHistoryRepository.findLatestPage(chatId, page);
+        boolean more = rows.size() > limit;
+        List<ChatHistory> items = new ArrayList<>(more ? rows.subList(0, limit) : rows);
+        Collections.reverse(items);
+        if (items.isEmpty()) {
+            return new KeysetPage<>(items, null, before != null ? before.encode() : null);
+        }
+        return new KeysetPage<>(items, more ? cursor(items.get(0)) : null, cursor(items.get(items.size() - 1)));
+    }
+
+    /**
+     * One page of a user's chats, newest first: the latest ones, or the ones before (older than) or
+     * after (newer than) a cursor
+     */
+    public KeysetPage<Chat> getChatsPage(String userId, KeysetCursor before, KeysetCursor after, int limit) {
+        Pageable page = PageRequest.of(0, limit + 1);
+        if (after != null) {
+            List<Chat> rows = chatRepository.findPageAfter(userId, after.getTimestamp(), after.getId(), page);
+            List<Chat> items = new ArrayList<>(rows.size() > limit ? rows.subList(0, limit) : rows);
+            Collections.reverse(items);
+            return items.isEmpty()
+                    ? new KeysetPage<>(items, null, after.encode())
+                    : new KeysetPage<>(items, cursor(items.get(items.size() - 1)), cursor(items.get(0)));
+        }
+        List<Chat> rows = before != null
+                ? chatRepository.findPageBefore(userId, before.getTimestamp(), before.getId(), page)
+                : chatRepository.findLatestPage(userId, page);
+        boolean more = rows.size() > limit;
+        List<Chat> items = more ? rows.subList(0, limit) : rows;
+        if (items.isEmpty()) {
+            return new KeysetPage<>(items, null, before != null ? before.encode() : null);
+        }
+        return new KeysetPage<>(items, more ? cursor(items.get(items.size() - 1)) : null, cursor(items.get(0)));
+    }
+
+    public boolean ownsChat(String userId, String chatId) {
+        return ownershipIndex.isOwner(chatId, userId);
+    }
+
+    /**
+     * Pass every committed message of a chat to action, oldest first, without holding the chat in
+     * memory: rows are read from a database cursor and detached once handled
+     */
+    @Transactional(readOnly = true)
+    public void forEachMessage(String chatId, Consumer<ChatHistory> action) {
+        try (Stream<ChatHistory> messages = chatHistoryRepository.streamByChatId(chatId)) {
+            messages.forEach(message -> {
+                action.accept(message);
+                entityManager.detach(message);
+                if (message.getBlob() != null) {
+                    entityManager.detach(message.getBlob());
+                }
+            });
+        }
+    }
+
+    private static String cursor(ChatHistory message) {
+        return new KeysetCursor(message.getTimestamp(), message.getId()).encode();
+    }
+
+    private static String cursor(Chat chat) {
+        return new KeysetCursor(chat.getCreatedAt(), chat.getId()).encode();
+    }
+
+    /**
+     * Queue a message for chat history; completes once it is committed, but it is visible to
+     * history reads right away
+     */
+    private CompletableFuture<ChatHistory> appendMessage(String chatId, String content, boolean fromUser,
+                                                         boolean fromCache) {
         ChatHistory message = ChatHistory.builder()
                 .chatId(chatId)
                 .content(content)
+                .contentLength(content.length())
                 .fromUser(fromUser)
                 .timestamp(LocalDateTime.now())
+                .tokenCount(contextAssembler.countTokens(content))
+                .fromCache(fromCache)
                 .build();
-        return chatHistoryRepository.save(message);
+        CompletableFuture<ChatHistory> committed = historyWriter.append(message);
+        contextAssembler.append(message);
+        return committed;
     }
 
     /**
-     * Process user message: check cache first, then call LLM if not cached
+     * Process user message: check cache first, then call LLM if not cached.
+     * Database stages run on the llm executor; no thread is held while the model generates.
      */
-    public String processUserMessage(String userId, String chatId, String userMessage) {
-        // 1. Validate chat ownership
-        if (!chatRepository.existsByChatIdAndUserId(chatId, userId)) {
-            throw new IllegalArgumentException("Chat not found or access denied");
+    public CompletableFuture<String> processUserMessageAsync(String userId, String chatId, String userMessage) {
+        return respond(userId, chatId, userMessage, null);
+    }
+
+    /**
+     * Same as processUserMessageAsync, but every generated token is passed to onToken as it arrives
+     * (a cached answer is passed as a single token)
+     */
+    public CompletableFuture<String> streamUserMessageAsync(String userId, String chatId, String userMessage,
+                                                            Consumer<String> onToken) {
+        return respond(userId, chatId, userMessage, onToken);
+    }
+
+    private CompletableFuture<String> respond(String userId, String chatId, String userMessage, Consumer<String> onToken) {
+        // Canonical form of the query for cache lookup and request coalescing
+        String canonicalQuery = queryCanonicalizer.canonicalize(userMessage);
+
+        return CompletableFuture
+                .supplyAsync(() -> {
+                    // 1. Validate chat ownership
+                    if (!ownershipIndex.isOwner(chatId, userId)) {
+                        throw new IllegalArgumentException("Chat not found or access denied");
+                    }
+
+                    // 2. Check cache first; on a miss refuse early (429) if the LLM queue is full,
+                    //    before anything is written to history. Only the first message of a chat
+                    //    is answered from (and stored in) the shared cache: later ones are
+                    //    answered with the chat's own history, which must not reach other users.
+                    Optional<String> cached = contextAssembler.hasHistory(chatId)
+                            ? Optional.empty()
+                            : queryCacheService.lookup(canonicalQuery);
+                    if (cached.isEmpty()) {
+                        llmScheduler.checkAdmission();
+                    }
+
+                    // 3. Queue the user message (ownership was just checked); the reply's commit
+                    //    below implies this one's, as the writer keeps each chat in order
+                    appendMessage(chatId, userMessage, true, false);
+                    return cached;
+                }, llmExecutor)
+                .thenCompose(cached -> cached
+                        .map(cache -> serveFromCache(userId, chatId, cache, onToken))
+                        .orElseGet(() -> generate(userId, chatId, canonicalQuery, onToken)
+                                .thenComposeAsync(llmResponse -> saveAnswer(userId, chatId, llmResponse, false), llmExecutor)));
+    }
+
+    /**
+     * Cache HIT: use cached response (the hit is counted by the lookup)
+     */
+    private CompletableFuture<String> serveFromCache(String userId, String chatId, String cachedResponse,
+                                                     Consumer<String> onToken) {
+        if (onToken != null) {
+            onToken.accept(ChatHistory.CACHED_PREFIX + cachedResponse);
         }
+        return saveAnswer(userId, chatId, cachedResponse, true);
+    }
 
-        // 2. Save user message to chat history
-        saveMessageForUser(userId, chatId, userMessage, true);
-
-        // 3. Normalize query for cache lookup (trim and lowercase)
-        String normalizedQuery = userMessage.trim().toLowerCase();
-
-        String llmResponse;
-
-        // 4. Check cache first
-        
-        if(!queryCacheRepository.existsByUserQuery(normalizedQuery)) {
-            // Cache MISS: call LLM
-            List<Map<String, String>> messages = new ArrayList<>();
-            messages.add(Map.of("role", "user", "content", userMessage));
-            llmResponse = llmClient.sendMessage(messages);
-
-            // Save to cache for future queries
-            QueryCache newCache = QueryCache.builder()
-                    .userQuery(normalizedQuery)
-                    .llmResponse(llmResponse)
-                    .createdAt(LocalDateTime.now())
-                    .lastAccessedAt(LocalDateTime.now())
-                    .hitCount(0)
-                    .build();
-            queryCacheRepository.save(newCache);
-        } else {
-            // Cache HIT: use cached response
-            Optional<QueryCache> cachedResponse = queryCacheRepository.findByUserQuery(normalizedQuery);
-
-            QueryCache cache = cachedResponse.get();
-            llmResponse = "*** FROM CACHE ***\n" +cache.getLlmResponse();
-
-            // Update cache statistics
-            cache.setLastAccessedAt(LocalDateTime.now());
-            cache.setHitCount(cache.getHitCount() + 1);
-            queryCacheRepository.save(cache);
+    /**
+     * 4. Save LLM response to chat history; answer once it is committed. The stored text is the
+     * answer alone, so a cached answer shares the query cache's content blob; the cache marker is
+     * a flag on the message and only added for display.
+     */
+    private CompletableFuture<String> saveAnswer(String userId, String chatId, String answer, boolean fromCache) {
+        if (!ownershipIndex.isOwner(chatId, userId)) {
+            throw new IllegalArgumentException("Chat not found or access denied");
         }
+        return appendMessage(chatId, answer, false, fromCache)
+                .thenApply(saved -> fromCache ? ChatHistory.CACHED_PREFIX + answer : answer);
+    }
 
-       
-        // 5. Save LLM response to chat history
-        saveMessageForUser(userId, chatId, llmResponse, false);
-        return llmResponse;
+    /**
+     * Cache MISS: call LLM. A prompt that is just the user message is shared: concurrent misses for
+     * the same query share one generation, and the answer is saved to cache for future queries.
+     * A prompt carrying earlier turns of the chat is private to it and neither coalesced nor cached.
+     */
+    private CompletableFuture<String> generate(String userId, String chatId, String canonicalQuery,
+                                               Consumer<String> onToken) {
+        // Recent turns of this chat within the token budget, ending with the user message just saved
+        List<Map<String, String>> messages = contextAssembler.assemble(chatId);
+        if (messages.size() > 1) {
+            return complete(userId, chatId, messages, onToken);
+        }
+        return singleFlight.execute(canonicalQuery, onToken, tokenSink ->
+                complete(userId, chatId, messages, tokenSink).thenApplyAsync(response -> {
+                    try {
+                        queryCacheService.put(canonicalQuery, response);
+                    } catch (RuntimeException e) {
+                        // Caching is best-effort; the answer is still saved to history and returned
+                        log.warn("Could not cache answer for chat {}: {}", chatId, e.getMessage());
+                    }
+                    return response;
+                }, llmExecutor));
     }
 
+    private CompletableFuture<String> complete(String userId, String chatId, List<Map<String, String>> messages,
+                                               Consumer<String> onToken) {
+        LlmRequest request = LlmRequest.builder()
+                .messages(messages)
+                .priority(LlmPriority.INTERACTIVE)
+                .tenant("user:" + userId)
+                .affinityKey(chatId)
+                .build();
+        return onToken == null
+                ? llmClient.sendMessageAsync(request)
+                : llmClient.streamMessageAsync(request, onToken);
+    }
 
     /**
      * Delete a chat and its history for a user (ownership check)
      */
     @Transactional
     public void deleteChat(String userId, String chatId) {
-        if (!chatRepository.existsByChatIdAndUserId(chatId, userId)) {
+        // Before the first read, so this transaction does not start on a snapshot the writer then commits past
+        historyWriter.awaitPending(chatId);
+        if (!ownershipIndex.isOwner(chatId, userId)) {
             throw new IllegalArgumentException("Chat not found or access denied");
         }
-        chatHistoryRepository.deleteByChatId(chatId);
-        chatRepository.deleteByChatId(chatId);
+        List<String> contentHashes = chatHistoryRepository.findContentHashesByChatId(chatId);
+        long messages = chatHistoryRepository.deleteByChatId(chatId);
+        contentBlobService.release(contentHashes);
+        chatStatsRepository.deleteByChatId(chatId);
+        if (chatRepository.deleteByChatId(chatId) > 0) {
+            AfterCommit.run(() -> usageStats.chatDeleted(chatId, messages));
+        }
+        ownershipIndex.invalidate(chatId);
+        contextAssembler.invalidate(chatId);
     }
 
     /**
      * Clear all query cache entries
      */
-    @Transactional
     public void clearQueryCache() {
-        queryCacheRepository.deleteAll();
+        queryCacheService.clear();
     }
 
 }
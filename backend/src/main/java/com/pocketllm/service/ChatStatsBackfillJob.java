@@ -0,0 +1,62 @@
+package com.pocketllm.service;
+
+import com.pocketllm.repository.ChatStatsRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Creates the chat_stats rows of chats created before the table existed, from their history, in
+ * batches of one transaction each, in the background after startup. Once every chat has a row
+ * this is a single empty query per start.
+ */
+@Component
+@Slf4j
+public class ChatStatsBackfillJob {
+
+    private final ChatStatsRepository chatStatsRepository;
+    private final Executor backgroundExecutor;
+    private final boolean enabled;
+    private final int batchSize;
+
+    public ChatStatsBackfillJob(ChatStatsRepository chatStatsRepository,
+                                @Qualifier("backgroundExecutor") Executor backgroundExecutor,
+                                @Value("${chat-stats.backfill.enabled:true}") boolean enabled,
+                                @Value("${chat-stats.backfill.batch-size:500}") int batchSize) {
+        this.chatStatsRepository = chatStatsRepository;
+        this.backgroundExecutor = backgroundExecutor;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void runInBackground() {
+        if (enabled) {
+            backgroundExecutor.execute(this::run);
+        }
+    }
+
+    void run() {
+        long started = System.nanoTime();
+        try {
+            int chats = 0;
+            List<String> chatIds;
+            // Every chat handled gets a row, so the next batch is again the first page
+            while (!(chatIds = chatStatsRepository.findChatIdsWithoutStats(PageRequest.of(0, batchSize))).isEmpty()) {
+                chats += chatStatsRepository.backfill(chatIds);
+            }
+            if (chats > 0) {
+                log.info("Backfilled chat statistics of {} chats in {} ms", chats, (System.nanoTime() - started) / 1_000_000);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Chat statistics backfill stopped: {}", e.getMessage());
+        }
+    }
+}
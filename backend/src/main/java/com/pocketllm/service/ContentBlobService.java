@@ -0,0 +1,98 @@
+package com.pocketllm.service;
+
+import com.pocketllm.model.entity.ContentBlob;
+import com.pocketllm.repository.ContentBlobRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Content-addressed, reference-counted storage for answer text shared between chats and the query
+ * cache. Callers take a reference when they write a row pointing at a blob and release it when the
+ * row is deleted, in the same transaction. {@link ContentDedupJob} moves older rows into blobs and
+ * repairs the counts.
+ */
+@Service
+public class ContentBlobService {
+
+    private final ContentBlobRepository contentBlobRepository;
+    private final Counter storedBlobs;
+    private final Counter deduplicatedBlobs;
+
+    public ContentBlobService(ContentBlobRepository contentBlobRepository, MeterRegistry meterRegistry) {
+        this.contentBlobRepository = contentBlobRepository;
+        this.storedBlobs = Counter.builder("pocketllm.content.blobs")
+                .tag("result", "stored")
+                .description("Answer texts written as a new blob")
+                .register(meterRegistry);
+        this.deduplicatedBlobs = Counter.builder("pocketllm.content.blobs")
+                .tag("result", "deduplicated")
+                .description("Answer texts that referenced an existing blob instead of being written again")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Blob holding content, with one more reference. Known content is not written again.
+     */
+    @Transactional
+    public ContentBlob acquire(String content) {
+        String contentHash = hash(content);
+        if (contentBlobRepository.addReference(contentHash) > 0) {
+            deduplicatedBlobs.increment();
+            return contentBlobRepository.findById(contentHash).orElseThrow();
+        }
+        storedBlobs.increment();
+        return contentBlobRepository.save(ContentBlob.builder()
+                .contentHash(contentHash)
+                .content(content)
+                .refCount(1)
+                .createdAt(LocalDateTime.now())
+                .build());
+    }
+
+    /**
+     * Drop one reference per hash (null hashes are rows holding their own text) and delete blobs
+     * nothing points at any more
+     */
+    @Transactional
+    public void release(Collection<String> contentHashes) {
+        Map<String, Long> counts = contentHashes.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        if (counts.isEmpty()) {
+            return;
+        }
+        counts.forEach(contentBlobRepository::releaseReferences);
+        contentBlobRepository.deleteUnreferenced(counts.keySet());
+    }
+
+    /**
+     * Recount references from the tables and delete orphaned blobs; returns the number deleted
+     */
+    @Transactional
+    public int collectGarbage() {
+        contentBlobRepository.recountReferences();
+        return contentBlobRepository.deleteAllUnreferenced();
+    }
+
+    static String hash(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
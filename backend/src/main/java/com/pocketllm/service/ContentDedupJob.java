@@ -0,0 +1,117 @@
+package com.pocketllm.service;
+
+import com.pocketllm.model.entity.ChatHistory;
+import com.pocketllm.model.entity.QueryCache;
+import com.pocketllm.repository.ChatHistoryRepository;
+import com.pocketllm.repository.QueryCacheRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Moves answers stored before content deduplication into shared content blobs: assistant messages
+ * and query cache rows still holding their own text are pointed at a blob in batches of one
+ * transaction each, in the background after startup. Finishes by recounting blob references and
+ * deleting orphaned blobs (references leaked by rows deleted outside the usual paths).
+ */
+@Component
+@Slf4j
+public class ContentDedupJob {
+
+    private final ChatHistoryRepository chatHistoryRepository;
+    private final QueryCacheRepository queryCacheRepository;
+    private final ContentBlobService contentBlobService;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor backgroundExecutor;
+    private final boolean enabled;
+    private final int batchSize;
+
+    public ContentDedupJob(ChatHistoryRepository chatHistoryRepository,
+                           QueryCacheRepository queryCacheRepository,
+                           ContentBlobService contentBlobService,
+                           PlatformTransactionManager transactionManager,
+                           @Qualifier("backgroundExecutor") Executor backgroundExecutor,
+                           @Value("${content-dedup.enabled:true}") boolean enabled,
+                           @Value("${content-dedup.batch-size:500}") int batchSize) {
+        this.chatHistoryRepository = chatHistoryRepository;
+        this.queryCacheRepository = queryCacheRepository;
+        this.contentBlobService = contentBlobService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.backgroundExecutor = backgroundExecutor;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void runInBackground() {
+        if (enabled) {
+            backgroundExecutor.execute(this::run);
+        }
+    }
+
+    void run() {
+        long started = System.nanoTime();
+        try {
+            int messages = 0;
+            int batch;
+            while ((batch = transactionTemplate.execute(status -> dedupMessages())) > 0) {
+                messages += batch;
+            }
+            int entries = 0;
+            while ((batch = transactionTemplate.execute(status -> dedupCacheEntries())) > 0) {
+                entries += batch;
+            }
+            int orphaned = contentBlobService.collectGarbage();
+            if (messages + entries + orphaned > 0) {
+                log.info("Moved {} chat messages and {} cache entries to shared content, deleted {} orphaned blobs in {} ms",
+                        messages, entries, orphaned, (System.nanoTime() - started) / 1_000_000);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Content deduplication stopped: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Every row handled gets a blob, so the next batch is again the first page
+     */
+    private int dedupMessages() {
+        List<ChatHistory> rows = chatHistoryRepository.findByFromUserFalseAndContentHashIsNull(PageRequest.of(0, batchSize));
+        for (ChatHistory row : rows) {
+            String content = row.getContent();
+            if (row.getContentLength() == null) {
+                row.setContentLength(content.length());
+            }
+            if (row.getFromCache() == null && content.startsWith(ChatHistory.CACHED_PREFIX)) {
+                // Cache marker saved in the text: keep the answer alone, so it shares the query cache's blob
+                content = content.substring(ChatHistory.CACHED_PREFIX.length());
+                row.setFromCache(true);
+            }
+            row.setBlob(contentBlobService.acquire(content));
+            row.setContent("");
+        }
+        return rows.size();
+    }
+
+    private int dedupCacheEntries() {
+        List<QueryCache> rows = queryCacheRepository.findByContentHashIsNull(PageRequest.of(0, batchSize));
+        for (QueryCache row : rows) {
+            String response = row.getLlmResponse();
+            if (row.getResponseSize() == null) {
+                row.setResponseSize(response.getBytes(StandardCharsets.UTF_8).length);
+            }
+            row.setBlob(contentBlobService.acquire(response));
+            row.setLlmResponse("");
+        }
+        return rows.size();
+    }
+}
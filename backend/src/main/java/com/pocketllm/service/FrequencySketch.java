@@ -0,0 +1,67 @@
+package com.pocketllm.service;
+
+/**
+ * Approximate, aging request counts per key (count-min sketch with 4-bit saturating counters, as in
+ * TinyLFU). Memory is fixed regardless of how many distinct keys are seen; after a sample period all
+ * counts are halved, so frequencies reflect recent traffic rather than all time.
+ */
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int samplePeriod;
+    private int additions;
+
+    FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(16, expectedKeys - 1)) << 1;
+        this.counters = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.samplePeriod = 10 * width;
+    }
+
+    synchronized void increment(Object key) {
+        int hash = spread(key.hashCode());
+        for (int i = 0; i < DEPTH; i++) {
+            int index = index(hash, i);
+            if (counters[i][index] < MAX_COUNT) {
+                counters[i][index]++;
+            }
+        }
+        if (++additions >= samplePeriod) {
+            age();
+        }
+    }
+
+    synchronized int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, counters[i][index(hash, i)]);
+        }
+        return frequency;
+    }
+
+    private void age() {
+        for (byte[] row : counters) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int index(int hash, int row) {
+        int h = (hash + SEEDS[row]) * SEEDS[row];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+}
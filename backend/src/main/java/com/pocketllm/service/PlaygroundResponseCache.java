@@ -0,0 +1,132 @@
+package com.pocketllm.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.pocketllm.llm.LlmClient;
+import com.pocketllm.llm.LlmRequest;
+import com.pocketllm.llm.SingleFlight;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Response cache for the API-key Playground endpoint, where clients replay identical prompts
+ * (evals, retries). The key is a hash of the whole conversation (role and content of every message,
+ * Unicode-normalized; whitespace is kept, the model sees it), the model and the sampling parameters. Identical requests arriving
+ * together share one generation. Sampled requests (temperature > 0) are only cached on opt-in,
+ * which the caller decides. Metrics: pocketllm.playground.cache{result=hit|miss|bypass}
+ */
+@Service
+public class PlaygroundResponseCache {
+
+    private final LlmClient llmClient;
+    private final SingleFlight singleFlight;
+    private final Cache<String, String> responses;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter bypasses;
+
+    public PlaygroundResponseCache(LlmClient llmClient,
+                                   SingleFlight singleFlight,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${playground-cache.max-chars:16000000}") long maxChars,
+                                   @Value("${playground-cache.ttl:1h}") Duration ttl) {
+        this.llmClient = llmClient;
+        this.singleFlight = singleFlight;
+        this.responses = Caffeine.newBuilder()
+                .maximumWeight(maxChars)
+                .weigher((String key, String response) -> key.length() + response.length())
+                .expireAfterWrite(ttl)
+                .build();
+        this.hits = resultCounter(meterRegistry, "hit");
+        this.misses = resultCounter(meterRegistry, "miss");
+        this.bypasses = resultCounter(meterRegistry, "bypass");
+    }
+
+    /**
+     * Stable cache key of a request: SHA-256 over the model, effective sampling parameters and messages
+     */
+    public String key(LlmRequest request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, llmClient.getModel());
+            update(digest, String.valueOf(orDefault(request.getMaxTokens(), LlmClient.DEFAULT_MAX_TOKENS)));
+            update(digest, String.valueOf(effectiveTemperature(request)));
+            update(digest, String.valueOf(orDefault(request.getTopP(), LlmClient.DEFAULT_TOP_P)));
+            for (Map<String, String> message : request.getMessages()) {
+                update(digest, normalize(message.get("role")).toLowerCase(Locale.ROOT));
+                update(digest, normalize(message.get("content")));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static double effectiveTemperature(LlmRequest request) {
+        return orDefault(request.getTemperature(), LlmClient.DEFAULT_TEMPERATURE);
+    }
+
+    public Optional<String> get(String key) {
+        String response = responses.getIfPresent(key);
+        if (response != null) {
+            hits.increment();
+        }
+        return Optional.ofNullable(response);
+    }
+
+    /**
+     * Generate the answer for key (joining an identical generation already running) and cache it
+     * unless it is an error text
+     */
+    public CompletableFuture<String> generate(String key, Supplier<CompletableFuture<String>> generator) {
+        misses.increment();
+        return singleFlight.execute("playground:" + key, null, tokenSink -> generator.get()
+                .thenApply(response -> {
+                    if (!LlmClient.isErrorResponse(response)) {
+                        responses.put(key, response);
+                    }
+                    return response;
+                }));
+    }
+
+    public void recordBypass() {
+        bypasses.increment();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        // Length prefix, so ("ab", "c") and ("a", "bc") hash differently
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : Normalizer.normalize(text, Normalizer.Form.NFC);
+    }
+
+    private static <T extends Number> T orDefault(T value, T fallback) {
+        return value != null ? value : fallback;
+    }
+
+    private static Counter resultCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("pocketllm.playground.cache")
+                .tag("result", result)
+                .description("Playground requests by cache outcome")
+                .register(meterRegistry);
+    }
+}
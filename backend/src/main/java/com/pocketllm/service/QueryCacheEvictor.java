@@ -0,0 +1,90 @@
+package com.pocketllm.service;
+
+import com.pocketllm.model.dto.QueryCacheEntryDTO;
+import com.pocketllm.repository.QueryCacheRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Background eviction for the query cache: deletes expired entries, then, while the cache is over
+ * its entry or byte budget, the least frequently and least recently used ones, in batches.
+ */
+@Component
+@Slf4j
+public class QueryCacheEvictor {
+
+    private final QueryCacheRepository queryCacheRepository;
+    private final QueryCacheService queryCacheService;
+    private final QueryCacheHitBuffer hitBuffer;
+    private final Duration ttl;
+    private final long maxEntries;
+    private final long maxBytes;
+    private final int batchSize;
+
+    public QueryCacheEvictor(QueryCacheRepository queryCacheRepository,
+                             QueryCacheService queryCacheService,
+                             QueryCacheHitBuffer hitBuffer,
+                             @Value("${query-cache.ttl:7d}") Duration ttl,
+                             @Value("${query-cache.max-entries:10000}") long maxEntries,
+                             @Value("${query-cache.max-bytes:67108864}") long maxBytes,
+                             @Value("${query-cache.evict-batch-size:200}") int batchSize) {
+        this.queryCacheRepository = queryCacheRepository;
+        this.queryCacheService = queryCacheService;
+        this.hitBuffer = hitBuffer;
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${query-cache.evict-interval:1m}")
+    public void evict() {
+        LocalDateTime now = LocalDateTime.now();
+        int expired = 0;
+        List<QueryCacheEntryDTO> batch;
+        do {
+            batch = queryCacheRepository.findExpired(now, now.minus(ttl), PageRequest.of(0, batchSize));
+            queryCacheService.remove(batch);
+            expired += batch.size();
+        } while (batch.size() == batchSize);
+
+        int overBudget = 0;
+        if (isOverBudget()) {
+            // Rank by up-to-date hit counts
+            hitBuffer.flush();
+        }
+        while (isOverBudget()) {
+            batch = queryCacheRepository.findEvictionCandidates(PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                break;
+            }
+            // Evict only as many as needed to get back within budget
+            long entries = queryCacheService.getEntryCount();
+            long bytes = queryCacheService.getTotalBytes();
+            int take = 0;
+            while (take < batch.size() && (entries > maxEntries || bytes > maxBytes)) {
+                entries--;
+                bytes -= batch.get(take).getResponseSize();
+                take++;
+            }
+            queryCacheService.remove(batch.subList(0, take));
+            overBudget += take;
+        }
+
+        if (expired + overBudget > 0) {
+            log.info("Query cache eviction: {} expired, {} over budget; {} entries, {} bytes left",
+                    expired, overBudget, queryCacheService.getEntryCount(), queryCacheService.getTotalBytes());
+        }
+    }
+
+    private boolean isOverBudget() {
+        return queryCacheService.getEntryCount() > maxEntries || queryCacheService.getTotalBytes() > maxBytes;
+    }
+}
@@ -0,0 +1,126 @@
+package com.pocketllm.service;
+
+import com.pocketllm.repository.QueryCacheRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind buffer for query cache hit statistics. Hits are counted in memory per query
+ * (LongAdder, so a hot query does not serialize its readers) and written periodically as
+ * hit_count = hit_count + delta updates in a single transaction, instead of one write per hit.
+ * Pending deltas are flushed on shutdown and can be read to keep statistics exact in between.
+ */
+@Component
+@Slf4j
+public class QueryCacheHitBuffer {
+
+    private final QueryCacheRepository queryCacheRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<String, PendingHits> pending = new ConcurrentHashMap<>();
+
+    public QueryCacheHitBuffer(QueryCacheRepository queryCacheRepository,
+                               PlatformTransactionManager transactionManager) {
+        this.queryCacheRepository = queryCacheRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public void recordHit(String queryHash) {
+        PendingHits hits = pending.get(queryHash);
+        if (hits == null) {
+            hits = pending.computeIfAbsent(queryHash, q -> new PendingHits());
+        }
+        hits.count.increment();
+        hits.lastAccessedAt = LocalDateTime.now();
+    }
+
+    /**
+     * Unflushed hits per query hash (a snapshot; counts may grow while it is read)
+     */
+    public Map<String, Long> pendingHits() {
+        Map<String, Long> snapshot = new ConcurrentHashMap<>();
+        pending.forEach((queryHash, hits) -> {
+            long count = hits.count.sum();
+            if (count > 0) {
+                snapshot.put(queryHash, count);
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * Forget unflushed hits (the entries they belong to are being deleted)
+     */
+    public void discard() {
+        pending.clear();
+    }
+
+    @Scheduled(fixedDelayString = "${query-cache.hit-flush-interval:5s}")
+    public void flush() {
+        List<Delta> deltas = new ArrayList<>();
+        pending.forEach((queryHash, hits) -> {
+            long count = hits.count.sumThenReset();
+            if (count == 0) {
+                // Idle since the last flush: drop the key; a hit racing the removal is picked up here
+                pending.remove(queryHash, hits);
+                count = hits.count.sumThenReset();
+            }
+            if (count > 0) {
+                deltas.add(new Delta(queryHash, count, hits.lastAccessedAt));
+            }
+        });
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                for (Delta delta : deltas) {
+                    queryCacheRepository.addHits(delta.queryHash, delta.count, delta.lastAccessedAt);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Put the counts back for the next attempt
+            log.warn("Could not flush {} query cache hit counts: {}", deltas.size(), e.getMessage());
+            for (Delta delta : deltas) {
+                PendingHits hits = pending.computeIfAbsent(delta.queryHash, q -> new PendingHits());
+                hits.count.add(delta.count);
+                if (hits.lastAccessedAt == null) {
+                    hits.lastAccessedAt = delta.lastAccessedAt;
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private static final class PendingHits {
+        private final LongAdder count = new LongAdder();
+        private volatile LocalDateTime lastAccessedAt;
+    }
+
+    private static final class Delta {
+        private final String queryHash;
+        private final long count;
+        private final LocalDateTime lastAccessedAt;
+
+        private Delta(String queryHash, long count, LocalDateTime lastAccessedAt) {
+            this.queryHash = queryHash;
+            this.count = count;
+            this.lastAccessedAt = lastAccessedAt;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.pocketllm.service;
+
+import com.pocketllm.model.entity.QueryCache;
+import com.pocketllm.repository.QueryCacheRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Startup migration for query_cache rows written before queries were canonicalized and hashed:
+ * each row gets its canonical text and query hash, in batches of one transaction each. Rows whose
+ * canonical form matches an entry that already exists are folded into it (hit counts are added).
+ */
+@Component
+@Slf4j
+public class QueryCacheRekeyRunner implements ApplicationRunner {
+
+    private final QueryCacheRepository queryCacheRepository;
+    private final QueryCanonicalizer canonicalizer;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    public QueryCacheRekeyRunner(QueryCacheRepository queryCacheRepository,
+                                 QueryCanonicalizer canonicalizer,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${query-cache.rekey-batch-size:500}") int batchSize) {
+        this.queryCacheRepository = queryCacheRepository;
+        this.canonicalizer = canonicalizer;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        int rekeyed = 0;
+        int merged = 0;
+        while (true) {
+            int[] counts = transactionTemplate.execute(status -> rekeyBatch());
+            if (counts == null || counts[0] + counts[1] == 0) {
+                break;
+            }
+            rekeyed += counts[0];
+            merged += counts[1];
+        }
+        if (rekeyed + merged > 0) {
+            log.info("Re-keyed {} query cache entries, merged {} duplicates", rekeyed, merged);
+        }
+    }
+
+    /**
+     * Every row handled gets a hash or is deleted, so the next batch is again the first page
+     */
+    private int[] rekeyBatch() {
+        List<QueryCache> rows = queryCacheRepository.findByQueryHashIsNull(PageRequest.of(0, batchSize));
+        int rekeyed = 0;
+        int merged = 0;
+        for (QueryCache row : rows) {
+            String canonical = canonicalizer.canonicalize(row.getUserQuery());
+            String queryHash = canonicalizer.hash(canonical);
+            Optional<QueryCache> survivor = queryCacheRepository.findByQueryHash(queryHash)
+                    .or(() -> queryCacheRepository.findByUserQuery(canonical))
+                    .filter(existing -> !existing.getId().equals(row.getId()));
+            if (survivor.isPresent()) {
+                QueryCache existing = survivor.get();
+                existing.setQueryHash(queryHash);
+                existing.setHitCount(existing.getHitCount() + row.getHitCount());
+                queryCacheRepository.delete(row);
+                merged++;
+            } else {
+                if (!canonical.equals(row.getUserQuery())) {
+                    row.setUserQuery(canonical);
+                    // Vector of the old text; recomputed by the semantic index rebuild
+                    row.setEmbedding(null);
+                }
+                row.setQueryHash(queryHash);
+                rekeyed++;
+            }
+        }
+        return new int[]{rekeyed, merged};
+    }
+}
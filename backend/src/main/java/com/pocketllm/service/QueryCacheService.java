@@ -0,0 +1,424 @@
+package com.pocketllm.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.pocketllm.llm.LlmClient;
+import com.pocketllm.model.dto.QueryCacheEntryDTO;
+import com.pocketllm.model.dto.QueryCacheExpiryDTO;
+import com.pocketllm.model.entity.ContentBlob;
+import com.pocketllm.model.entity.QueryCache;
+import com.pocketllm.repository.QueryCacheRepository;
+import com.pocketllm.semantic.Embedder;
+import com.pocketllm.util.AfterCommit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Query cache in two tiers: an in-memory L1 (Caffeine, bounded by the total length of the cached
+ * answers) in front of the query_cache table. Lookups read through to the table on an L1 miss;
+ * an L1 hit touches no database, its hit count goes to the {@link QueryCacheHitBuffer}.
+ * A {@link SemanticQueryIndex} can answer misses with the entry of a similar query.
+ * Metrics: pocketllm.querycache.lookups{result=l1_hit|l2_hit|semantic_hit|miss},
+ * pocketllm.querycache.hit.ratio{tier=l1|l2|semantic},
+ * pocketllm.querycache.l1.entries, pocketllm.querycache.l1.evictions, pocketllm.querycache.entries,
+ * pocketllm.querycache.bytes, pocketllm.querycache.rejected{reason=error|infrequent}
+ * <p>
+ * Entries expire after query-cache.ttl and are admitted only once their query has been asked
+ * query-cache.admission.min-frequency times recently (TinyLFU-style {@link FrequencySketch});
+ * {@link QueryCacheEvictor} keeps the table within its entry and byte budget.
+ * L1 is preloaded at startup from the {@link QueryCacheSnapshot} of the hottest entries
+ * (pocketllm.querycache.warmup.entries|load|ready).
+ */
+@Service
+@Slf4j
+public class QueryCacheService {
+
+    private static final int WARMUP_BATCH = 500; // hashes per existence check, below SQLite's bound-parameter limit
+
+    private final QueryCacheRepository queryCacheRepository;
+    private final QueryCanonicalizer canonicalizer;
+    private final QueryCacheHitBuffer hitBuffer;
+    private final SemanticQueryIndex semanticIndex;
+    private final Cache<String, CachedAnswer> l1; // query hash -> answer
+    private final FrequencySketch sketch;
+    private final Duration ttl;
+    private final int minFrequency;
+    private final AtomicLong entryCount = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final QueryCacheSnapshot snapshot;
+    private final ContentBlobService contentBlobService;
+    private final UsageStats usageStats;
+    private volatile int warmupEntries;
+    private volatile double warmupLoadSeconds;
+    private volatile double warmAfterStartSeconds;
+
+    // Bumped by clear(), so a lookup that read the table before the clear does not refill L1 after it
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Counter l1Hits;
+    private final Counter l2Hits;
+    private final Counter semanticHits;
+    private final Counter misses;
+    private final Counter rejectedErrors;
+    private final Counter rejectedInfrequent;
+
+    public QueryCacheService(QueryCacheRepository queryCacheRepository,
+                             QueryCanonicalizer canonicalizer,
+                             QueryCacheHitBuffer hitBuffer,
+                             SemanticQueryIndex semanticIndex,
+                             QueryCacheSnapshot snapshot,
+                             ContentBlobService contentBlobService,
+                             UsageStats usageStats,
+                             MeterRegistry meterRegistry,
+                             @Value("${query-cache.l1.max-chars:16000000}") long maxChars,
+                             @Value("${query-cache.ttl:7d}") Duration ttl,
+                             @Value("${query-cache.admission.min-frequency:2}") int minFrequency,
+                             @Value("${query-cache.max-entries:10000}") int maxEntries) {
+        this.queryCacheRepository = queryCacheRepository;
+        this.canonicalizer = canonicalizer;
+        this.hitBuffer = hitBuffer;
+        this.semanticIndex = semanticIndex;
+        this.snapshot = snapshot;
+        this.contentBlobService = contentBlobService;
+        this.usageStats = usageStats;
+        this.l1 = Caffeine.newBuilder()
+                .maximumWeight(maxChars)
+                .weigher((String queryHash, CachedAnswer answer) -> queryHash.length() + answer.response.length())
+                .recordStats()
+                .build();
+        this.sketch = new FrequencySketch(maxEntries * 4);
+        this.ttl = ttl;
+        this.minFrequency = minFrequency;
+
+        this.l1Hits = lookupCounter(meterRegistry, "l1_hit");
+        this.l2Hits = lookupCounter(meterRegistry, "l2_hit");
+        this.semanticHits = lookupCounter(meterRegistry, "semantic_hit");
+        this.misses = lookupCounter(meterRegistry, "miss");
+        this.rejectedErrors = rejectedCounter(meterRegistry, "error");
+        this.rejectedInfrequent = rejectedCounter(meterRegistry, "infrequent");
+        Gauge.builder("pocketllm.querycache.hit.ratio", this, s -> s.ratio(s.l1Hits.count()))
+                .tag("tier", "l1")
+                .description("Share of lookups answered from memory")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.querycache.hit.ratio", this, s -> s.ratio(s.l2Hits.count()))
+                .tag("tier", "l2")
+                .description("Share of lookups answered from the query_cache table")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.querycache.hit.ratio", this, s -> s.ratio(s.semanticHits.count()))
+                .tag("tier", "semantic")
+                .description("Share of lookups answered with the answer of a similar query")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.querycache.l1.entries", l1, Cache::estimatedSize)
+                .register(meterRegistry);
+        FunctionCounter.builder("pocketllm.querycache.l1.evictions", l1, c -> c.stats().evictionCount())
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.querycache.entries", entryCount, AtomicLong::get)
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.querycache.bytes", totalBytes, AtomicLong::get)
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.querycache.warmup.entries", this, s -> s.warmupEntries)
+                .description("Entries loaded into memory from the snapshot at startup")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.querycache.warmup.load", this, s -> s.warmupLoadSeconds)
+                .baseUnit("seconds")
+                .description("Time spent loading the snapshot")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.querycache.warmup.ready", this, s -> s.warmAfterStartSeconds)
+                .baseUnit("seconds")
+                .description("Time from JVM start until the in-memory tier was warm")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Cached answer for a canonical query (see {@link QueryCanonicalizer}), counting the hit.
+     * Falls back to the answer of a semantically similar query when the semantic tier is enabled.
+     */
+    public Optional<String> lookup(String canonicalQuery) {
+        String queryHash = canonicalizer.hash(canonicalQuery);
+        sketch.increment(queryHash);
+        Optional<String> response = lookupExact(canonicalQuery, queryHash, l1Hits, l2Hits);
+        if (response.isEmpty()) {
+            response = semanticIndex.findSimilar(canonicalQuery)
+                    .flatMap(similarQuery -> lookupExact(similarQuery, canonicalizer.hash(similarQuery),
+                            semanticHits, semanticHits));
+        }
+        if (response.isEmpty()) {
+            misses.increment();
+        }
+        usageStats.cacheLookup(response.isPresent());
+        return response;
+    }
+
+    /**
+     * Store a freshly generated answer in all tiers, unless it is an error text or the query has not
+     * been asked often enough recently to be worth a slot (one-hit wonders are not admitted).
+     * The text goes to the shared content blob, together with the chat message that carries it.
+     * A row already holding the query hash (expired, not yet evicted, or a colliding query) is
+     * overwritten in place. L1, the semantic index and the size counters follow once it is committed.
+     */
+    @Transactional
+    public void put(String canonicalQuery, String response) {
+        if (LlmClient.isErrorResponse(response)) {
+            rejectedErrors.increment();
+            return;
+        }
+        String queryHash = canonicalizer.hash(canonicalQuery);
+        if (sketch.frequency(queryHash) < minFrequency) {
+            rejectedInfrequent.increment();
+            return;
+        }
+
+        float[] vector = semanticIndex.embed(canonicalQuery);
+        int responseSize = response.getBytes(StandardCharsets.UTF_8).length;
+        LocalDateTime now = LocalDateTime.now();
+        // The new reference is taken first, so a blob already holding the same text is not deleted in between
+        ContentBlob blob = contentBlobService.acquire(response);
+        QueryCache entry = queryCacheRepository.findByQueryHash(queryHash).orElse(null);
+        boolean added = entry == null;
+        long replacedBytes = 0;
+        String replacedQuery = null;
+        if (added) {
+            entry = QueryCache.builder().queryHash(queryHash).build();
+        } else {
+            replacedBytes = entry.getResponseSize() != null ? entry.getResponseSize() : 0;
+            if (!entry.getUserQuery().equals(canonicalQuery)) {
+                replacedQuery = entry.getUserQuery();
+            }
+            contentBlobService.release(Collections.singletonList(entry.getContentHash()));
+        }
+        entry.setBlob(blob);
+        entry.setUserQuery(canonicalQuery);
+        entry.setLlmResponse("");
+        entry.setResponseSize(responseSize);
+        entry.setCreatedAt(now);
+        entry.setLastAccessedAt(now);
+        entry.setExpiresAt(now.plus(ttl));
+        entry.setHitCount(0);
+        entry.setEmbedding(vector != null ? Embedder.toBytes(vector) : null);
+        queryCacheRepository.save(entry);
+
+        CachedAnswer answer = new CachedAnswer(response, entry.getExpiresAt());
+        String removedQuery = replacedQuery;
+        long bytesDelta = responseSize - replacedBytes;
+        AfterCommit.run(() -> {
+            if (added) {
+                entryCount.incrementAndGet();
+            }
+            totalBytes.addAndGet(bytesDelta);
+            if (removedQuery != null) {
+                semanticIndex.remove(removedQuery);
+            }
+            l1.put(queryHash, answer);
+            semanticIndex.add(canonicalQuery, vector);
+        });
+    }
+
+    /**
+     * Delete entries from all tiers (used by the evictor); the in-memory tiers follow the commit
+     */
+    @Transactional
+    public void remove(List<QueryCacheEntryDTO> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        queryCacheRepository.deleteAllByIdInBatch(entries.stream().map(QueryCacheEntryDTO::getId).toList());
+        contentBlobService.release(entries.stream().map(QueryCacheEntryDTO::getContentHash).toList());
+        AfterCommit.run(() -> {
+            for (QueryCacheEntryDTO entry : entries) {
+                if (entry.getQueryHash() != null) {
+                    l1.invalidate(entry.getQueryHash());
+                }
+                semanticIndex.remove(entry.getUserQuery());
+                entryCount.decrementAndGet();
+                totalBytes.addAndGet(-entry.getResponseSize());
+            }
+        });
+    }
+
+    /**
+     * Drop every cached answer from all tiers. The in-memory tiers, counters and snapshot follow
+     * once the delete is committed.
+     */
+    @Transactional
+    public void clear() {
+        queryCacheRepository.deleteAll();
+        contentBlobService.collectGarbage();
+        AfterCommit.run(() -> {
+            generation.incrementAndGet();
+            l1.invalidateAll();
+            semanticIndex.clear();
+            hitBuffer.discard();
+            usageStats.resetCacheLookups();
+            snapshot.delete();
+            entryCount.set(0);
+            totalBytes.set(0);
+        });
+    }
+
+    public long getEntryCount() {
+        return entryCount.get();
+    }
+
+    /**
+     * Total UTF-8 size of the cached answers, kept up to date as entries come and go
+     */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * Fill L1 from the snapshot of the hottest entries before the application reports ready.
+     * Exposes how long after JVM start the cache was warm and how many entries were loaded.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        long started = System.nanoTime();
+        LocalDateTime now = LocalDateTime.now();
+        AtomicLong kept = new AtomicLong();
+        Map<String, CachedAnswer> batch = new HashMap<>();
+        snapshot.load((queryHash, response, expiresAt) -> {
+            CachedAnswer answer = new CachedAnswer(response, expiresAt);
+            if (!answer.isExpired(now)) {
+                batch.put(queryHash, answer);
+                if (batch.size() >= WARMUP_BATCH) {
+                    kept.addAndGet(warmUpBatch(batch));
+                }
+            }
+        });
+        kept.addAndGet(warmUpBatch(batch));
+        int loaded = (int) kept.get();
+        warmupEntries = loaded;
+        warmupLoadSeconds = (System.nanoTime() - started) / 1e9;
+        warmAfterStartSeconds = (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime()) / 1e3;
+        if (loaded > 0) {
+            log.info("Query cache warmed with {} entries in {} ms ({} s after JVM start)",
+                    loaded, Math.round(warmupLoadSeconds * 1000), warmAfterStartSeconds);
+        }
+    }
+
+    /**
+     * Put the snapshot entries that are still current into L1 and empty the batch. The snapshot may
+     * be minutes old: an entry deleted since is gone from the table, one overwritten since has a new
+     * expiry (the snapshot keeps whole seconds of it); both are dropped.
+     */
+    private int warmUpBatch(Map<String, CachedAnswer> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int kept = 0;
+        for (QueryCacheExpiryDTO current : queryCacheRepository.findExpiryByQueryHashIn(batch.keySet())) {
+            CachedAnswer answer = batch.get(current.getQueryHash());
+            LocalDateTime expiresAt = current.getExpiresAt() != null
+                    ? current.getExpiresAt().truncatedTo(ChronoUnit.SECONDS)
+                    : null;
+            if (answer != null && Objects.equals(expiresAt, answer.expiresAt)) {
+                l1.put(current.getQueryHash(), answer);
+                kept++;
+            }
+        }
+        batch.clear();
+        return kept;
+    }
+
+    /**
+     * Size counters start from one aggregate query, once the startup re-keying has finished
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initSizeCounters() {
+        entryCount.set(queryCacheRepository.count());
+        totalBytes.set(queryCacheRepository.sumResponseBytes());
+    }
+
+    private Optional<String> lookupExact(String canonicalQuery, String queryHash, Counter memoryHits, Counter tableHits) {
+        LocalDateTime now = LocalDateTime.now();
+        CachedAnswer cached = l1.getIfPresent(queryHash);
+        if (cached != null) {
+            if (cached.isExpired(now)) {
+                // The evictor deletes the row
+                l1.invalidate(queryHash);
+                return Optional.empty();
+            }
+            memoryHits.increment();
+            hitBuffer.recordHit(queryHash);
+            return Optional.of(cached.response);
+        }
+
+        long readGeneration = generation.get();
+        Optional<QueryCache> stored = queryCacheRepository.findByQueryHash(queryHash)
+                // Guard against a hash collision
+                .filter(entry -> entry.getUserQuery().equals(canonicalQuery));
+        if (stored.isEmpty()) {
+            return Optional.empty();
+        }
+        QueryCache entry = stored.get();
+        if (LlmClient.isErrorResponse(entry.getLlmResponse())) {
+            // Cached before errors were refused; never serve it
+            remove(List.of(QueryCacheEntryDTO.of(entry)));
+            return Optional.empty();
+        }
+        CachedAnswer answer = new CachedAnswer(entry.getLlmResponse(), entry.getExpiresAt());
+        if (answer.isExpired(now)) {
+            return Optional.empty();
+        }
+        tableHits.increment();
+        if (generation.get() == readGeneration) {
+            l1.put(queryHash, answer);
+        }
+        hitBuffer.recordHit(queryHash);
+        return Optional.of(answer.response);
+    }
+
+    private double ratio(double hits) {
+        double lookups = l1Hits.count() + l2Hits.count() + semanticHits.count() + misses.count();
+        return lookups == 0 ? 0 : hits / lookups;
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("pocketllm.querycache.rejected")
+                .tag("reason", reason)
+                .description("Generated answers not admitted to the cache")
+                .register(meterRegistry);
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("pocketllm.querycache.lookups")
+                .tag("result", result)
+                .description("Query cache lookups by the tier that answered")
+                .register(meterRegistry);
+    }
+
+    private static final class CachedAnswer {
+        private final String response;
+        private final LocalDateTime expiresAt; // null for entries cached before TTLs
+
+        private CachedAnswer(String response, LocalDateTime expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(LocalDateTime now) {
+            return expiresAt != null && expiresAt.isBefore(now);
+        }
+    }
+}
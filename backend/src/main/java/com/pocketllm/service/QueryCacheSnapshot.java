@@ -0,0 +1,149 @@
+package com.pocketllm.service;
+
+import com.pocketllm.model.entity.QueryCache;
+import com.pocketllm.repository.QueryCacheRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Snapshot of the hottest query cache entries (by hit count, then recency) in a compact binary file,
+ * so a restarted instance can fill its in-memory tier from one memory-mapped read instead of
+ * row-by-row queries. Layout: header (magic, version, count), a fixed-width index
+ * (16-byte query hash, expiry epoch seconds or -1, data offset, data length) and the UTF-8 answers.
+ * Written periodically and on shutdown; replaced atomically.
+ */
+@Component
+@Slf4j
+public class QueryCacheSnapshot {
+
+    private static final int MAGIC = 0x504c5153; // "PLQS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    private static final int INDEX_ENTRY_BYTES = 16 + 8 + 4 + 4;
+
+    private final QueryCacheRepository queryCacheRepository;
+    private final Path path;
+    private final int maxEntries;
+
+    public QueryCacheSnapshot(QueryCacheRepository queryCacheRepository,
+                              @Value("${query-cache.snapshot.path:}") String path,
+                              @Value("${query-cache.snapshot.entries:1000}") int maxEntries) {
+        this.queryCacheRepository = queryCacheRepository;
+        this.path = path.isBlank() ? null : Path.of(path);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Receives the snapshot entries on load
+     */
+    public interface EntryConsumer {
+        void accept(String queryHash, String response, LocalDateTime expiresAt);
+    }
+
+    @Scheduled(fixedDelayString = "${query-cache.snapshot.interval:5m}",
+            initialDelayString = "${query-cache.snapshot.interval:5m}")
+    public void write() {
+        if (path == null) {
+            return;
+        }
+        List<QueryCache> hot = queryCacheRepository.findHotEntries(LocalDateTime.now(), PageRequest.of(0, maxEntries));
+        byte[][] responses = new byte[hot.size()][];
+        int dataOffset = HEADER_BYTES + hot.size() * INDEX_ENTRY_BYTES;
+        ByteBuffer index = ByteBuffer.allocate(dataOffset);
+        index.putInt(MAGIC).putInt(VERSION).putInt(hot.size());
+        int offset = dataOffset;
+        for (int i = 0; i < hot.size(); i++) {
+            QueryCache entry = hot.get(i);
+            responses[i] = entry.getLlmResponse().getBytes(StandardCharsets.UTF_8);
+            index.put(HexFormat.of().parseHex(entry.getQueryHash()));
+            index.putLong(entry.getExpiresAt() != null ? entry.getExpiresAt().toEpochSecond(ZoneOffset.UTC) : -1);
+            index.putInt(offset).putInt(responses[i].length);
+            offset += responses[i].length;
+        }
+
+        try {
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(index.array());
+                for (byte[] response : responses) {
+                    out.write(response);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Query cache snapshot written: {} entries, {} bytes", hot.size(), offset);
+        } catch (IOException e) {
+            log.warn("Could not write query cache snapshot {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Map the snapshot file and pass every entry to consumer; returns the number of entries read
+     */
+    public int load(EntryConsumer consumer) {
+        if (path == null || !Files.isRegularFile(path)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                log.warn("Ignoring query cache snapshot {} with unknown format", path);
+                return 0;
+            }
+            int count = buffer.getInt(8);
+            byte[] hash = new byte[16];
+            for (int i = 0; i < count; i++) {
+                int position = HEADER_BYTES + i * INDEX_ENTRY_BYTES;
+                buffer.get(position, hash);
+                long expiresAt = buffer.getLong(position + 16);
+                int offset = buffer.getInt(position + 24);
+                int length = buffer.getInt(position + 28);
+                byte[] response = new byte[length];
+                buffer.get(offset, response);
+                consumer.accept(HexFormat.of().formatHex(hash), new String(response, StandardCharsets.UTF_8),
+                        expiresAt < 0 ? null : LocalDateTime.ofEpochSecond(expiresAt, 0, ZoneOffset.UTC));
+            }
+            return count;
+        } catch (IOException | IndexOutOfBoundsException e) {
+            log.warn("Could not read query cache snapshot {}: {}", path, e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Remove the snapshot (the cache was cleared)
+     */
+    public void delete() {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete query cache snapshot {}: {}", path, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void writeOnShutdown() {
+        write();
+    }
+}
@@ -0,0 +1,69 @@
+package com.pocketllm.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Turns a user message into the query cache key: the canonical text (NFKC, lower case, whitespace
+ * collapsed, trailing sentence punctuation and configured stop phrases removed), so trivial variants
+ * share one entry, and a fixed-width 128-bit hash of it for indexed lookups.
+ */
+@Component
+public class QueryCanonicalizer {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s.?!,;:\u2026\u3002\uff1f\uff01]+$");
+
+    private final Pattern stopPhrases;
+
+    public QueryCanonicalizer(@Value("${query-cache.stop-phrases:}") List<String> stopPhrases) {
+        List<String> phrases = stopPhrases.stream()
+                .map(this::collapse)
+                .filter(phrase -> !phrase.isEmpty())
+                .toList();
+        this.stopPhrases = phrases.isEmpty() ? null : Pattern.compile(phrases.stream()
+                .map(Pattern::quote)
+                .collect(Collectors.joining("|", "(?<![\\p{L}\\p{N}])(?:", ")(?![\\p{L}\\p{N}])")));
+    }
+
+    public String canonicalize(String query) {
+        String canonical = collapse(query);
+        if (stopPhrases != null) {
+            String stripped = collapse(stopPhrases.matcher(canonical).replaceAll(" "));
+            // A query made only of stop phrases keeps them
+            if (!stripped.isEmpty()) {
+                canonical = stripped;
+            }
+        }
+        String trimmed = TRAILING_PUNCTUATION.matcher(canonical).replaceAll("");
+        return trimmed.isEmpty() ? canonical : trimmed;
+    }
+
+    /**
+     * 128-bit key of a canonical query: the first half of its SHA-256, as 32 hex digits
+     */
+    public String hash(String canonicalQuery) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonicalQuery.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(Arrays.copyOf(digest, 16));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String collapse(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+    }
+}
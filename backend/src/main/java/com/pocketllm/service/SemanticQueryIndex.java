@@ -0,0 +1,130 @@
+package com.pocketllm.service;
+
+import com.pocketllm.model.dto.QueryEmbeddingDTO;
+import com.pocketllm.repository.QueryCacheRepository;
+import com.pocketllm.semantic.Embedder;
+import com.pocketllm.semantic.HnswIndex;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+/**
+ * Semantic tier of the query cache: finds a cached query that means nearly the same as a new one.
+ * Every cached query has a vector from the {@link Embedder}, stored in its query_cache row and
+ * held in an in-memory HNSW index, which is rebuilt from the table at startup (in the background;
+ * until then lookups just miss) and extended as answers are cached. Disabled by default.
+ * Metrics: pocketllm.querycache.semantic.lookup (timer), pocketllm.querycache.semantic.entries
+ */
+@Service
+@Slf4j
+public class SemanticQueryIndex {
+
+    private static final int REBUILD_PAGE_SIZE = 500;
+
+    private final QueryCacheRepository queryCacheRepository;
+    private final Embedder embedder;
+    private final Executor backgroundExecutor;
+    private final HnswIndex index;
+    private final boolean enabled;
+    private final double threshold;
+    private final Timer lookupTimer;
+
+    public SemanticQueryIndex(QueryCacheRepository queryCacheRepository,
+                              Embedder embedder,
+                              @Qualifier("backgroundExecutor") Executor backgroundExecutor,
+                              MeterRegistry meterRegistry,
+                              @Value("${query-cache.semantic.enabled:false}") boolean enabled,
+                              @Value("${query-cache.semantic.threshold:0.9}") double threshold,
+                              @Value("${query-cache.semantic.hnsw.m:16}") int m,
+                              @Value("${query-cache.semantic.hnsw.ef-construction:100}") int efConstruction,
+                              @Value("${query-cache.semantic.hnsw.ef-search:64}") int efSearch) {
+        this.queryCacheRepository = queryCacheRepository;
+        this.embedder = embedder;
+        this.backgroundExecutor = backgroundExecutor;
+        this.index = new HnswIndex(m, efConstruction, efSearch);
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.lookupTimer = Timer.builder("pocketllm.querycache.semantic.lookup")
+                .description("Embedding plus nearest-neighbour search for one query")
+                .register(meterRegistry);
+        Gauge.builder("pocketllm.querycache.semantic.entries", index, HnswIndex::size)
+                .register(meterRegistry);
+    }
+
+    /**
+     * The cached query most similar to normalizedQuery, if it is at least as similar as the threshold
+     */
+    public Optional<String> findSimilar(String normalizedQuery) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        return lookupTimer.record(() -> index.search(embedder.embed(normalizedQuery), 1).stream()
+                .filter(match -> match.getSimilarity() >= threshold)
+                .map(HnswIndex.Match::getKey)
+                .findFirst());
+    }
+
+    /**
+     * Vector to store with a new cache entry, or null when the semantic cache is off
+     */
+    public float[] embed(String normalizedQuery) {
+        return enabled ? embedder.embed(normalizedQuery) : null;
+    }
+
+    public void add(String normalizedQuery, float[] vector) {
+        if (vector != null) {
+            index.add(normalizedQuery, vector);
+        }
+    }
+
+    public void remove(String normalizedQuery) {
+        index.remove(normalizedQuery);
+    }
+
+    public void clear() {
+        index.clear();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildInBackground() {
+        if (enabled) {
+            backgroundExecutor.execute(this::rebuild);
+        }
+    }
+
+    private void rebuild() {
+        long started = System.nanoTime();
+        int page = 0;
+        int reembedded = 0;
+        List<QueryEmbeddingDTO> rows;
+        do {
+            rows = queryCacheRepository.findEmbeddings(PageRequest.of(page++, REBUILD_PAGE_SIZE));
+            for (QueryEmbeddingDTO row : rows) {
+                byte[] stored = row.getEmbedding();
+                float[] vector;
+                if (stored != null && stored.length == embedder.dimensions() * Float.BYTES) {
+                    vector = Embedder.fromBytes(stored);
+                } else {
+                    // Cached before the semantic tier was enabled, or by a different embedder
+                    vector = embedder.embed(row.getUserQuery());
+                    queryCacheRepository.updateEmbedding(row.getQueryHash(), Embedder.toBytes(vector));
+                    reembedded++;
+                }
+                index.add(row.getUserQuery(), vector);
+            }
+        } while (rows.size() == REBUILD_PAGE_SIZE);
+        log.info("Semantic query index rebuilt: {} entries ({} re-embedded) in {} ms",
+                index.size(), reembedded, (System.nanoTime() - started) / 1_000_000);
+    }
+}
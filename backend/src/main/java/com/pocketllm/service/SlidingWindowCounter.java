@@ -0,0 +1,52 @@
+package com.pocketllm.service;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Events in the last window, kept in a ring of time buckets: adding is a lock-free increment of the
+ * current bucket (a bucket is reset once, under a lock, when the ring comes round to it again) and
+ * reading sums a fixed number of buckets. Precision is one bucket.
+ */
+class SlidingWindowCounter {
+
+    private final long bucketMillis;
+    private final int size;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray epochs; // bucket number (millis / bucketMillis) each slot currently holds
+
+    SlidingWindowCounter(Duration window, int buckets) {
+        this.bucketMillis = Math.max(1, window.toMillis() / buckets);
+        this.size = buckets;
+        this.counts = new AtomicLongArray(buckets);
+        this.epochs = new AtomicLongArray(buckets);
+    }
+
+    void add(long timeMillis, long n) {
+        long bucket = timeMillis / bucketMillis;
+        int slot = (int) (bucket % size);
+        if (epochs.get(slot) < bucket) {
+            synchronized (this) {
+                if (epochs.get(slot) < bucket) {
+                    counts.set(slot, 0);
+                    epochs.set(slot, bucket);
+                }
+            }
+        } else if (epochs.get(slot) > bucket) {
+            return; // older than the window
+        }
+        counts.addAndGet(slot, n);
+    }
+
+    long sum(long nowMillis) {
+        long current = nowMillis / bucketMillis;
+        long total = 0;
+        for (int slot = 0; slot < size; slot++) {
+            long epoch = epochs.get(slot);
+            if (epoch > current - size && epoch <= current) {
+                total += counts.get(slot);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,201 @@
+package com.pocketllm.service;
+
+import com.pocketllm.model.dto.ChatActivityDTO;
+import com.pocketllm.model.entity.UsageCounter;
+import com.pocketllm.repository.ChatHistoryRepository;
+import com.pocketllm.repository.ChatRepository;
+import com.pocketllm.repository.QueryCacheRepository;
+import com.pocketllm.repository.UserRepository;
+import com.pocketllm.repository.UsageCounterRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Admin dashboard numbers kept up to date by the write paths, so reading them never scans a table:
+ * LongAdder totals for users, chats, messages and cache lookups, a ring of time buckets for
+ * messages in the last 24 hours and the last message time of each chat active in the last hour.
+ * User, chat and message totals and the windows are recounted from the tables at startup; cache
+ * hits and misses have no source table and are persisted to usage_counter periodically and on
+ * shutdown.
+ */
+@Component
+@Slf4j
+public class UsageStats {
+
+    static final Duration MESSAGE_WINDOW = Duration.ofHours(24);
+    static final Duration ACTIVE_WINDOW = Duration.ofHours(1);
+    private static final int MESSAGE_BUCKETS = 96; // 15 minutes each
+
+    private static final String CACHE_HITS = "cache.hits";
+    private static final String CACHE_MISSES = "cache.misses";
+
+    private final UserRepository userRepository;
+    private final ChatRepository chatRepository;
+    private final ChatHistoryRepository chatHistoryRepository;
+    private final QueryCacheRepository queryCacheRepository;
+    private final UsageCounterRepository usageCounterRepository;
+
+    private final LongAdder users = new LongAdder();
+    private final LongAdder chats = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final SlidingWindowCounter recentMessages = new SlidingWindowCounter(MESSAGE_WINDOW, MESSAGE_BUCKETS);
+    private final Map<String, Long> lastActivity = new ConcurrentHashMap<>(); // chatId -> epoch millis
+
+    public UsageStats(UserRepository userRepository,
+                      ChatRepository chatRepository,
+                      ChatHistoryRepository chatHistoryRepository,
+                      QueryCacheRepository queryCacheRepository,
+                      UsageCounterRepository usageCounterRepository) {
+        this.userRepository = userRepository;
+        this.chatRepository = chatRepository;
+        this.chatHistoryRepository = chatHistoryRepository;
+        this.queryCacheRepository = queryCacheRepository;
+        this.usageCounterRepository = usageCounterRepository;
+    }
+
+    public void userCreated() {
+        users.increment();
+    }
+
+    public void chatCreated() {
+        chats.increment();
+    }
+
+    public void chatDeleted(String chatId, long deletedMessages) {
+        chats.decrement();
+        messages.add(-deletedMessages);
+        lastActivity.remove(chatId);
+    }
+
+    /**
+     * A message was committed to chat history
+     */
+    public void messageSaved(String chatId, LocalDateTime timestamp) {
+        long millis = toMillis(timestamp);
+        messages.increment();
+        recentMessages.add(millis, 1);
+        lastActivity.merge(chatId, millis, Math::max);
+    }
+
+    public void cacheLookup(boolean hit) {
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    /**
+     * The query cache was cleared; its hit rate starts over
+     */
+    public void resetCacheLookups() {
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+
+    public long getUsers() {
+        return users.sum();
+    }
+
+    public long getChats() {
+        return chats.sum();
+    }
+
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public long getMessagesLast24Hours() {
+        return recentMessages.sum(System.currentTimeMillis());
+    }
+
+    /**
+     * Chats with a message in the last hour (entries older than that are dropped every minute)
+     */
+    public long getActiveConversations() {
+        return lastActivity.size();
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    public void expireInactiveChats() {
+        long cutoff = System.currentTimeMillis() - ACTIVE_WINDOW.toMillis();
+        lastActivity.values().removeIf(millis -> millis <= cutoff);
+    }
+
+    /**
+     * Seed every counter from the tables, before the web server takes requests
+     */
+    @PostConstruct
+    public void load() {
+        long started = System.nanoTime();
+        users.add(userRepository.count());
+        chats.add(chatRepository.count());
+        messages.add(chatHistoryRepository.count());
+
+        LocalDateTime now = LocalDateTime.now();
+        Duration bucket = MESSAGE_WINDOW.dividedBy(MESSAGE_BUCKETS);
+        for (LocalDateTime from = now.minus(MESSAGE_WINDOW); from.isBefore(now); from = from.plus(bucket)) {
+            LocalDateTime to = from.plus(bucket).isBefore(now) ? from.plus(bucket) : now;
+            recentMessages.add(toMillis(from),
+                    chatHistoryRepository.countByTimestampGreaterThanEqualAndTimestampLessThan(from, to));
+        }
+        for (ChatActivityDTO chat : chatHistoryRepository.findChatActivitySince(now.minus(ACTIVE_WINDOW))) {
+            lastActivity.merge(chat.getChatId(), toMillis(chat.getLastMessageAt()), Math::max);
+        }
+
+        Map<String, Long> persisted = usageCounterRepository.findAll().stream()
+                .collect(Collectors.toMap(UsageCounter::getName, UsageCounter::getValue));
+        if (persisted.containsKey(CACHE_HITS)) {
+            cacheHits.add(persisted.get(CACHE_HITS));
+            cacheMisses.add(persisted.getOrDefault(CACHE_MISSES, 0L));
+        } else {
+            // First start with usage counters: continue from the per-entry statistics of query_cache
+            Integer hits = queryCacheRepository.sumTotalHits();
+            Integer misses = queryCacheRepository.countMisses();
+            cacheHits.add(hits == null ? 0 : hits);
+            cacheMisses.add(misses == null ? 0 : misses);
+        }
+        log.info("Usage statistics loaded in {} ms", (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @Scheduled(fixedDelayString = "${stats.persist-interval:1m}", initialDelayString = "${stats.persist-interval:1m}")
+    public void persist() {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Long> values = Map.of(CACHE_HITS, cacheHits.sum(), CACHE_MISSES, cacheMisses.sum());
+        List<UsageCounter> counters = values.entrySet().stream()
+                .map(e -> UsageCounter.builder().name(e.getKey()).value(e.getValue()).updatedAt(now).build())
+                .toList();
+        usageCounterRepository.saveAll(counters);
+    }
+
+    @PreDestroy
+    public void persistOnShutdown() {
+        try {
+            persist();
+        } catch (RuntimeException e) {
+            log.warn("Could not persist usage statistics: {}", e.getMessage());
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
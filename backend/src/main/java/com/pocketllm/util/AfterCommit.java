@@ -0,0 +1,31 @@
+package com.pocketllm.util;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Side effects on in-memory state (caches, indexes, counters) that must only happen once the
+ * database change behind them is committed
+ */
+public final class AfterCommit {
+
+    private AfterCommit() {
+    }
+
+    /**
+     * Run action after the current transaction commits (never, if it rolls back), or right away
+     * outside a transaction
+     */
+    public static void run(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
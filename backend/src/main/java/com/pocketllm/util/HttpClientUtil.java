@@ -1,14 +1,18 @@
-
 package com.pocketllm.util;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.URI;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 
 @Component
 public class HttpClientUtil {
@@ -25,14 +29,137 @@ public class HttpClientUtil {
     }
 
     public String postJson(String url, String jsonBody) throws Exception {
+        HttpResponse<String> response = client.send(jsonPost(url, HttpRequest.BodyPublishers.ofString(jsonBody)),
+                HttpResponse.BodyHandlers.ofString());
+        return response.body();
+    }
+
+    /**
+     * Non-blocking variant of postJson: no thread waits while the server is generating.
+     * Body and response stay raw UTF-8 bytes, so callers can encode/parse without an intermediate String.
+     * Fails with an IOException on a 4xx/5xx status so callers can tell a broken server from an answer.
+     */
+    public CompletableFuture<byte[]> postJsonAsync(String url, byte[] jsonBody) {
+        return client.sendAsync(jsonPost(url, HttpRequest.BodyPublishers.ofByteArray(jsonBody)),
+                        HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> successBody(response, response.body()));
+    }
+
+    /**
+     * POST a JSON body and hand every line of the response to onLine as soon as it arrives
+     * (used for server-sent event streams). The future completes when the response body ends.
+     * Completing it exceptionally first (orTimeout, cancel) cancels the body subscription: the
+     * connection is closed and onLine is not called again.
+     */
+    public CompletableFuture<Void> postJsonStreamAsync(String url, byte[] jsonBody, Consumer<String> onLine) {
+        LineSubscriber subscriber = new LineSubscriber(onLine);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        client.sendAsync(jsonPost(url, HttpRequest.BodyPublishers.ofByteArray(jsonBody)),
+                        HttpResponse.BodyHandlers.<LineSubscriber, Void>fromLineSubscriber(
+                                subscriber, s -> null, null))
+                .thenApply(response -> successBody(response, response.body()))
+                .whenComplete((body, ex) -> {
+                    if (ex != null) {
+                        result.completeExceptionally(ex);
+                    } else {
+                        result.complete(body);
+                    }
+                });
+        result.whenComplete((body, ex) -> {
+            if (ex != null) {
+                subscriber.cancel();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * GET url and report only the status code (health probes)
+     */
+    public CompletableFuture<Integer> getStatusAsync(String url, Duration timeout) {
         HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(timeout)
+                .GET()
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply(HttpResponse::statusCode);
+    }
+
+    /**
+     * GET url and return the body; fails on an HTTP error status
+     */
+    public CompletableFuture<byte[]> getAsync(String url, Duration timeout) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(timeout)
+                .GET()
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> successBody(response, response.body()));
+    }
+
+    private static <T> T successBody(HttpResponse<?> response, T body) {
+        if (response.statusCode() >= 400) {
+            throw new UncheckedIOException(new IOException("HTTP " + response.statusCode() + " from " + response.uri()));
+        }
+        return body;
+    }
+
+    private HttpRequest jsonPost(String url, HttpRequest.BodyPublisher body) {
+        return HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .timeout(requestTimeout)
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+                .POST(body)
                 .build();
+    }
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        return response.body();
+    private static final class LineSubscriber implements Flow.Subscriber<String> {
+
+        private final Consumer<String> onLine;
+        private volatile Flow.Subscription subscription;
+        private volatile boolean cancelled;
+
+        private LineSubscriber(Consumer<String> onLine) {
+            this.onLine = onLine;
+        }
+
+        /**
+         * Stop the body; lines already in flight are dropped
+         */
+        private void cancel() {
+            cancelled = true;
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (cancelled) {
+                subscription.cancel();
+            } else {
+                subscription.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (!cancelled) {
+                onLine.accept(line);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // Surfaced through the CompletableFuture returned by sendAsync
+        }
+
+        @Override
+        public void onComplete() {
+        }
     }
 }
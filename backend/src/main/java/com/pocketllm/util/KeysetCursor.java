@@ -0,0 +1,52 @@
+package com.pocketllm.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position in a list ordered by (timestamp, id), passed to clients as an opaque string
+ */
+public final class KeysetCursor {
+
+    private final LocalDateTime timestamp;
+    private final long id;
+
+    public KeysetCursor(LocalDateTime timestamp, long id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String encode() {
+        String raw = timestamp + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Cursor from a client, or null when none was given
+     *
+     * @throws IllegalArgumentException if the cursor was not produced by {@link #encode()}
+     */
+    public static KeysetCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf('|');
+            return new KeysetCursor(LocalDateTime.parse(raw.substring(0, separator)),
+                    Long.parseLong(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+-- Indexes for the hot lookups. Tables and columns are still created by Hibernate (ddl-auto=update);
+-- IF NOT EXISTS keeps this safe on databases where some of them were created from entity annotations.
+
+-- Chat ownership lookups and per-user chat list (findByUserIdOrderByCreatedAtDesc)
+CREATE UNIQUE INDEX IF NOT EXISTS idx_chat_chat_id ON chat (chat_id);
+CREATE INDEX IF NOT EXISTS idx_chat_user_created ON chat (user_id, created_at);
+-- countByCreatedAtAfter (admin stats)
+CREATE INDEX IF NOT EXISTS idx_chat_created_at ON chat (created_at);
+
+-- History of one chat in order (findByChatIdOrderByTimestampAsc/Desc, countByChatId): the
+-- (chat_id, timestamp) pair answers both the filter and the sort without a temp b-tree
+CREATE INDEX IF NOT EXISTS idx_chat_history_chat_timestamp ON chat_history (chat_id, timestamp);
+-- countByTimestampAfter (messages today)
+CREATE INDEX IF NOT EXISTS idx_chat_history_timestamp ON chat_history (timestamp);
+-- Shared answer references (release on delete, reference recount)
+CREATE INDEX IF NOT EXISTS idx_chat_history_content_hash ON chat_history (content_hash);
+
+-- Query cache lookup key, TTL expiry, LFU/LRU eviction and top queries (findTop10ByOrderByHitCountDesc
+-- walks the eviction index backwards), shared answer references
+CREATE UNIQUE INDEX IF NOT EXISTS idx_query_cache_query_hash ON query_cache (query_hash);
+CREATE INDEX IF NOT EXISTS idx_query_cache_expires_at ON query_cache (expires_at);
+CREATE INDEX IF NOT EXISTS idx_query_cache_eviction ON query_cache (hit_count, last_accessed_at);
+CREATE INDEX IF NOT EXISTS idx_query_cache_content_hash ON query_cache (content_hash);
+
+-- API keys of a user, newest first (findByUserIdOrderByCreatedAtDesc)
+CREATE INDEX IF NOT EXISTS idx_api_keys_user_created ON api_keys (user_id, created_at);
@@ -0,0 +1,7 @@
+-- Sort orders of the admin chat list (ChatStatsRepository.findPage, ties broken by chat_id), so a
+-- page is read from the index instead of sorting the whole table
+CREATE INDEX IF NOT EXISTS idx_chat_stats_created_at ON chat_stats (created_at, chat_id);
+CREATE INDEX IF NOT EXISTS idx_chat_stats_last_activity ON chat_stats (last_activity_at, chat_id);
+CREATE INDEX IF NOT EXISTS idx_chat_stats_message_count ON chat_stats (message_count, chat_id);
+CREATE INDEX IF NOT EXISTS idx_chat_stats_size_bytes ON chat_stats (size_bytes, chat_id);
+CREATE INDEX IF NOT EXISTS idx_chat_stats_token_count ON chat_stats (token_count, chat_id);
@@ -0,0 +1,129 @@
+package com.pocketllm.config;
+
+import com.pocketllm.repository.ChatRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "content-dedup.enabled=false",
+        "chat-stats.backfill.enabled=false",
+        "sqlite.reader.busy-timeout=500",
+        "sqlite.writer.busy-timeout=5000"
+})
+class SqliteDataSourceConfigTest {
+
+    @TempDir
+    static Path dir;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> "jdbc:sqlite:" + dir.resolve("routing.db"));
+    }
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Test
+    void readOnlyTransactionsUseTheReaderPool() {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        Role role = readOnly.execute(status -> currentRole());
+
+        assertThat(role.busyTimeout).isEqualTo(500);
+        assertThat(role.serialized).isFalse();
+    }
+
+    @Test
+    void writeTransactionsGoThroughTheSerializedWriter() {
+        Role role = new TransactionTemplate(transactionManager).execute(status -> currentRole());
+
+        assertThat(role.busyTimeout).isEqualTo(5000);
+        assertThat(role.serialized).isTrue();
+    }
+
+    @Test
+    void findersDoNotWaitForTheWriterAndWritersQueue() throws Exception {
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() ->
+                new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                    currentRole();
+                    holding.countDown();
+                    await(release);
+                }));
+        assertThat(holding.await(10, TimeUnit.SECONDS)).isTrue();
+
+        // A repository finder outside a transaction is read-only and never touches the held writer
+        assertThat(CompletableFuture.supplyAsync(() -> chatRepository.findByChatId("missing"))
+                .get(5, TimeUnit.SECONDS)).isEmpty();
+
+        CompletableFuture<Role> second = CompletableFuture.supplyAsync(() ->
+                new TransactionTemplate(transactionManager).execute(status -> currentRole()));
+        Thread.sleep(300);
+        assertThat(second).isNotDone();
+
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        assertThat(second.get(10, TimeUnit.SECONDS).serialized).isTrue();
+    }
+
+    /**
+     * Pool of the connection the current transaction runs on: the roles differ in busy_timeout,
+     * and only writer connections are wrapped by SerializedWriterDataSource
+     */
+    private Role currentRole() {
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            Connection target = ((ConnectionProxy) connection).getTargetConnection();
+            try (Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery("PRAGMA busy_timeout")) {
+                result.next();
+                return new Role(result.getInt(1), Proxy.isProxyClass(target.getClass()));
+            }
+        });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Role {
+        private final int busyTimeout;
+        private final boolean serialized;
+
+        private Role(int busyTimeout, boolean serialized) {
+            this.busyTimeout = busyTimeout;
+            this.serialized = serialized;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.pocketllm.llm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatCompletionCodecTest {
+
+    private static final String TRICKY = "Quotes \" and \\ backslashes,\nnew lines, tabs\t and ünïcödé ▁ 😀";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ChatCompletionCodec codec = new ChatCompletionCodec("test-model", 100, 0.7, 0.9);
+
+    @Test
+    void defaultRequestCarriesPreEncodedParametersAndMessages() throws IOException {
+        List<Map<String, String>> messages = List.of(
+                Map.of("role", "system", "content", "Be brief"),
+                Map.of("role", "user", "content", TRICKY));
+
+        JsonNode body = mapper.readTree(codec.encodeRequest(LlmRequest.builder().messages(messages).build(), -1, false));
+
+        assertThat(body.path("model").asText()).isEqualTo("test-model");
+        assertThat(body.path("max_tokens").asInt()).isEqualTo(100);
+        assertThat(body.path("temperature").asDouble()).isEqualTo(0.7);
+        assertThat(body.path("top_p").asDouble()).isEqualTo(0.9);
+        assertThat(body.path("cache_prompt").asBoolean()).isTrue();
+        assertThat(body.has("id_slot")).isFalse();
+        assertThat(body.has("stream")).isFalse();
+        assertThat(mapper.convertValue(body.path("messages"), List.class)).isEqualTo(messages);
+    }
+
+    @Test
+    void overridesSlotAndStreamAreEncoded() throws IOException {
+        LlmRequest request = LlmRequest.builder()
+                .messages(List.of(Map.of("role", "user", "content", "hi")))
+                .maxTokens(512)
+                .temperature(0.2)
+                .build();
+
+        JsonNode body = mapper.readTree(codec.encodeRequest(request, 3, true));
+
+        assertThat(body.path("max_tokens").asInt()).isEqualTo(512);
+        assertThat(body.path("temperature").asDouble()).isEqualTo(0.2);
+        assertThat(body.path("top_p").asDouble()).isEqualTo(0.9);
+        assertThat(body.path("cache_prompt").asBoolean()).isTrue();
+        assertThat(body.path("id_slot").asInt()).isEqualTo(3);
+        assertThat(body.path("stream").asBoolean()).isTrue();
+    }
+
+    @Test
+    void completionContentSurvivesTheRoundTrip() throws IOException {
+        // Fields before and around the content are skipped, including nested ones and a second choice
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", "cmpl-1");
+        response.put("usage", Map.of("prompt_tokens", 12, "completion_tokens", 5));
+        response.put("choices", List.of(
+                Map.of("index", 0, "logprobs", Map.of("content", List.of()),
+                        "message", Map.of("role", "assistant", "content", TRICKY)),
+                Map.of("index", 1, "message", Map.of("role", "assistant", "content", "second"))));
+
+        assertThat(codec.decodeCompletion(mapper.writeValueAsBytes(response))).isEqualTo(TRICKY);
+    }
+
+    @Test
+    void completionWithoutContentDecodesToNull() throws IOException {
+        assertThat(codec.decodeCompletion(mapper.writeValueAsBytes(Map.of("choices", List.of())))).isNull();
+        assertThat(codec.decodeCompletion(mapper.writeValueAsBytes(Map.of("error", Map.of("message", "boom"))))).isNull();
+        assertThat(codec.decodeCompletion("{\"choices\":[{\"message\":{\"content\":null}}]}".getBytes(StandardCharsets.UTF_8))).isNull();
+    }
+
+    @Test
+    void streamChunksYieldTheirDelta() throws IOException {
+        String chunk = mapper.writeValueAsString(Map.of("choices", List.of(Map.of("delta", Map.of("content", TRICKY)))));
+
+        assertThat(codec.decodeChunk(chunk)).isEqualTo(TRICKY);
+        assertThat(codec.decodeChunk("{\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\"}}]}")).isNull();
+        assertThat(codec.decodeChunk("{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}")).isNull();
+    }
+}
@@ -0,0 +1,264 @@
+package com.pocketllm.llm;
+
+import com.pocketllm.util.HttpClientUtil;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LlmBackendPoolTest {
+
+    private static final int STUB_SLOTS = 4;
+    private static final String STUB_ANSWER = "stub answer";
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final HttpClientUtil httpClientUtil = new HttpClientUtil(Duration.ofSeconds(1), Duration.ofSeconds(2));
+
+    @AfterEach
+    void stopServers() {
+        servers.forEach(server -> {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+        });
+    }
+
+    @Test
+    void leastOutstandingSpreadsRequestsAcrossEndpoints() throws IOException {
+        LlmBackendPool pool = pool(LlmBackendPool.Strategy.LEAST_OUTSTANDING,
+                endpoint(stub(new AtomicInteger(200)), 2),
+                endpoint(stub(new AtomicInteger(200)), 2),
+                endpoint(stub(new AtomicInteger(200)), 2));
+
+        for (int i = 0; i < 3; i++) {
+            pool.acquire(null);
+        }
+
+        assertThat(pool.getEndpoints()).allSatisfy(e -> assertThat(e.getOutstanding()).isEqualTo(1));
+        assertThat(pool.getTotalCapacity()).isEqualTo(6);
+    }
+
+    @Test
+    void unhealthyEndpointIsEjectedAndReadmitted() throws IOException {
+        AtomicInteger brokenStatus = new AtomicInteger(503);
+        LlmEndpoint healthy = endpoint(stub(new AtomicInteger(200)), 4);
+        LlmEndpoint broken = endpoint(stub(brokenStatus), 4);
+        LlmBackendPool pool = pool(LlmBackendPool.Strategy.LEAST_OUTSTANDING, healthy, broken);
+
+        pool.probeEndpoints().join();
+        pool.probeEndpoints().join();
+        assertThat(broken.isHealthy()).isFalse();
+        for (int i = 0; i < 4; i++) {
+            assertThat(pool.acquire(null).getEndpoint()).isSameAs(healthy);
+        }
+
+        brokenStatus.set(200);
+        pool.probeEndpoints().join();
+        assertThat(broken.isHealthy()).isTrue();
+        assertThat(pool.acquire(null).getEndpoint()).isSameAs(broken);
+    }
+
+    @Test
+    void ewmaPrefersFasterEndpoint() throws IOException {
+        LlmEndpoint slow = endpoint(stub(new AtomicInteger(200)), 4);
+        LlmEndpoint fast = endpoint(stub(new AtomicInteger(200)), 4);
+        LlmBackendPool pool = pool(LlmBackendPool.Strategy.EWMA, slow, fast);
+
+        pool.release(pool.acquire(null), Duration.ofSeconds(8).toNanos(), true);
+        pool.release(pool.acquire(null), Duration.ofSeconds(1).toNanos(), true);
+
+        assertThat(pool.acquire(null).getEndpoint()).isSameAs(fast);
+        assertThat(pool.acquire(null).getEndpoint()).isSameAs(fast);
+    }
+
+    @Test
+    void conversationSticksToItsEndpointAndSlot() throws IOException {
+        LlmBackendPool pool = pool(LlmBackendPool.Strategy.LEAST_OUTSTANDING,
+                endpoint(stub(new AtomicInteger(200)), 4),
+                endpoint(stub(new AtomicInteger(200)), 4));
+
+        // Slots are pinned only once the servers have reported how many they have
+        assertThat(pool.acquire("chat-7").getSlot()).isEqualTo(-1);
+        pool.probeEndpoints().join();
+        assertThat(pool.getEndpoints()).allSatisfy(e -> assertThat(e.getServerSlots()).isEqualTo(STUB_SLOTS));
+        assertThat(pool.acquire(null).getSlot()).isEqualTo(-1);
+
+        LlmRoute first = pool.acquire("chat-42");
+        pool.release(first, Duration.ofMillis(100).toNanos(), true);
+        LlmRoute second = pool.acquire("chat-42");
+
+        assertThat(second.getEndpoint()).isSameAs(first.getEndpoint());
+        assertThat(second.getSlot()).isEqualTo(first.getSlot()).isNotNegative();
+
+        // Home slot busy: the same endpoint serves the turn from another idle slot
+        LlmRoute concurrent = pool.acquire("chat-42");
+        assertThat(concurrent.getEndpoint()).isSameAs(first.getEndpoint());
+        assertThat(concurrent.getSlot()).isNotEqualTo(second.getSlot()).isNotNegative();
+    }
+
+    @Test
+    void completionsAreSpreadAcrossServersAndFailOver() throws IOException {
+        AtomicInteger brokenStatus = new AtomicInteger(200);
+        AtomicInteger firstCompletions = new AtomicInteger();
+        AtomicInteger secondCompletions = new AtomicInteger();
+        LlmEndpoint first = endpoint(stub(new AtomicInteger(200), firstCompletions), 2);
+        LlmEndpoint second = endpoint(stub(brokenStatus, secondCompletions), 2);
+        LlmBackendPool pool = pool(LlmBackendPool.Strategy.LEAST_OUTSTANDING, first, second);
+        LlmClient client = client(pool);
+
+        List<String> answers = complete(client, 20);
+        assertThat(answers).allSatisfy(answer -> assertThat(answer).isEqualTo(STUB_ANSWER));
+        assertThat(firstCompletions.get() + secondCompletions.get()).isEqualTo(20);
+        assertThat(firstCompletions.get()).isBetween(5, 15);
+
+        // The second server starts failing: its requests fail until it is ejected, then the first takes everything
+        brokenStatus.set(503);
+        complete(client, 8);
+        assertThat(second.isHealthy()).isFalse();
+        int firstBefore = firstCompletions.get();
+        int secondBefore = secondCompletions.get();
+
+        answers = complete(client, 10);
+        assertThat(answers).allSatisfy(answer -> assertThat(answer).isEqualTo(STUB_ANSWER));
+        assertThat(firstCompletions.get()).isEqualTo(firstBefore + 10);
+        assertThat(secondCompletions.get()).isEqualTo(secondBefore);
+    }
+
+    @Test
+    void streamTimeoutCancelsTheBodyAndFreesTheRoute() throws IOException, InterruptedException {
+        HttpServer server = stub(new AtomicInteger(200));
+        server.createContext("/v1/stream", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(200, 0);
+            try {
+                exchange.getResponseBody().write(chunk("Hel"));
+                exchange.getResponseBody().flush();
+                Thread.sleep(1000);
+                exchange.getResponseBody().write(chunk("lo"));
+                exchange.getResponseBody().flush();
+            } catch (IOException | InterruptedException e) {
+                // The client hung up
+            } finally {
+                exchange.close();
+            }
+        });
+        LlmEndpoint endpoint = new LlmEndpoint("http://localhost:" + server.getAddress().getPort() + "/v1/stream", 1, 2);
+        LlmBackendPool pool = pool(LlmBackendPool.Strategy.LEAST_OUTSTANDING, endpoint);
+        LlmClient client = client(pool);
+        ReflectionTestUtils.setField(client, "llmTimeout", Duration.ofMillis(300));
+        List<String> tokens = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<String> answer = client.streamMessageAsync(LlmRequest.builder()
+                .messages(List.of(Map.of("role", "user", "content", "hi")))
+                .build(), tokens::add);
+
+        // Part of the answer was streamed, so no error text stands in for it
+        assertThatThrownBy(answer::join).hasCauseInstanceOf(LlmStreamInterruptedException.class);
+        assertThat(endpoint.getOutstanding()).isEqualTo(0);
+        Thread.sleep(1200);
+        assertThat(tokens).containsOnly("Hel");
+    }
+
+    private LlmBackendPool pool(LlmBackendPool.Strategy strategy, LlmEndpoint... endpoints) {
+        return new LlmBackendPool(List.of(endpoints), strategy, httpClientUtil, "/health", "/props",
+                Duration.ofSeconds(1), 2, new SimpleMeterRegistry());
+    }
+
+    private LlmEndpoint endpoint(HttpServer server, int maxConcurrency) {
+        return new LlmEndpoint("http://localhost:" + server.getAddress().getPort() + "/v1/chat/completions",
+                1, maxConcurrency);
+    }
+
+    /**
+     * Client running every request through the pool, with the scheduler admitting as many
+     * requests as the pool has slots
+     */
+    private LlmClient client(LlmBackendPool pool) {
+        LlmScheduler scheduler = new LlmScheduler(0, 64, Duration.ofMillis(100), Duration.ofSeconds(10),
+                pool, new SimpleMeterRegistry());
+        LlmClient client = new LlmClient(httpClientUtil, scheduler, pool, "stub-model");
+        ReflectionTestUtils.setField(client, "llmTimeout", Duration.ofSeconds(5));
+        return client;
+    }
+
+    /**
+     * Send count completions at once and wait for all answers
+     */
+    private List<String> complete(LlmClient client, int count) {
+        List<CompletableFuture<String>> answers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            answers.add(client.sendMessageAsync(LlmRequest.builder()
+                    .messages(List.of(Map.of("role", "user", "content", "question " + i)))
+                    .build()));
+        }
+        return answers.stream().map(CompletableFuture::join).toList();
+    }
+
+    private static byte[] chunk(String token) {
+        return ("data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + token + "\"}}]}\n\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private HttpServer stub(AtomicInteger status) throws IOException {
+        return stub(status, new AtomicInteger());
+    }
+
+    /**
+     * Stub model server: /health and /v1/chat/completions answer with the current value of status,
+     * a successful completion takes a few milliseconds and is counted in completions; /props
+     * reports STUB_SLOTS slots
+     */
+    private HttpServer stub(AtomicInteger status, AtomicInteger completions) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(STUB_SLOTS));
+        server.createContext("/v1/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            if (status.get() != 200) {
+                exchange.sendResponseHeaders(status.get(), -1);
+                exchange.close();
+                return;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            completions.incrementAndGet();
+            byte[] completion = ("{\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\""
+                    + STUB_ANSWER + "\"}}]}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, completion.length);
+            exchange.getResponseBody().write(completion);
+            exchange.close();
+        });
+        server.createContext("/health", exchange -> {
+            exchange.sendResponseHeaders(status.get(), -1);
+            exchange.close();
+        });
+        server.createContext("/props", exchange -> {
+            byte[] props = ("{\"default_generation_settings\":{\"n_ctx\":4096},\"total_slots\":" + STUB_SLOTS + "}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, props.length);
+            exchange.getResponseBody().write(props);
+            exchange.close();
+        });
+        server.start();
+        servers.add(server);
+        return server;
+    }
+}
@@ -0,0 +1,123 @@
+package com.pocketllm.llm;
+
+import com.pocketllm.util.HttpClientUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LlmSchedulerTest {
+
+    // Tasks record when they start and finish only when the test completes their future
+    private final List<String> started = new CopyOnWriteArrayList<>();
+    private final Map<String, CompletableFuture<String>> running = new ConcurrentHashMap<>();
+
+    @Test
+    void higherPriorityClassesAreServedFirst() {
+        LlmScheduler scheduler = scheduler(1, 8, Duration.ofSeconds(10));
+        scheduler.submit(LlmPriority.INTERACTIVE, "u", task("blocker"));
+
+        scheduler.submit(LlmPriority.BACKGROUND, "summary", task("background"));
+        scheduler.submit(LlmPriority.API, "key", task("api"));
+        scheduler.submit(LlmPriority.INTERACTIVE, "u", task("interactive"));
+        assertThat(scheduler.getQueued()).isEqualTo(3);
+
+        finish("blocker");
+        finish("interactive");
+        finish("api");
+        finish("background");
+
+        assertThat(started).isEqualTo(List.of("blocker", "interactive", "api", "background"));
+        assertThat(scheduler.getRunning()).isEqualTo(0);
+        assertThat(scheduler.getQueued()).isEqualTo(0);
+    }
+
+    @Test
+    void tenantsOfOneClassTakeTurns() {
+        LlmScheduler scheduler = scheduler(1, 8, Duration.ofSeconds(10));
+        scheduler.submit(LlmPriority.INTERACTIVE, "a", task("blocker"));
+
+        scheduler.submit(LlmPriority.INTERACTIVE, "a", task("a1"));
+        scheduler.submit(LlmPriority.INTERACTIVE, "a", task("a2"));
+        scheduler.submit(LlmPriority.INTERACTIVE, "a", task("a3"));
+        scheduler.submit(LlmPriority.INTERACTIVE, "b", task("b1"));
+        scheduler.submit(LlmPriority.INTERACTIVE, "b", task("b2"));
+        scheduler.submit(LlmPriority.INTERACTIVE, "c", task("c1"));
+
+        for (String name : List.of("blocker", "a1", "b1", "c1", "a2", "b2", "a3")) {
+            finish(name);
+        }
+
+        assertThat(started).isEqualTo(List.of("blocker", "a1", "b1", "c1", "a2", "b2", "a3"));
+    }
+
+    @Test
+    void fullQueueRejectsAndWithdrawnRequestsNeverRun() {
+        LlmScheduler scheduler = scheduler(1, 2, Duration.ofSeconds(10));
+        CompletableFuture<String> blocker = scheduler.submit(LlmPriority.INTERACTIVE, "u", task("blocker"));
+        CompletableFuture<String> cancelled = scheduler.submit(LlmPriority.INTERACTIVE, "u", task("cancelled"));
+        CompletableFuture<String> waiting = scheduler.submit(LlmPriority.INTERACTIVE, "u", task("waiting"));
+
+        assertThatThrownBy(() -> scheduler.submit(LlmPriority.INTERACTIVE, "u", task("rejected")).join())
+                .hasCauseInstanceOf(LlmOverloadedException.class);
+        assertThatThrownBy(scheduler::checkAdmission).isInstanceOf(LlmOverloadedException.class);
+
+        cancelled.cancel(false);
+        assertThat(scheduler.getQueued()).isEqualTo(1);
+        finish("blocker");
+        finish("waiting");
+
+        assertThat(blocker.join()).isEqualTo("blocker");
+        assertThat(waiting.join()).isEqualTo("waiting");
+        assertThat(started).isEqualTo(List.of("blocker", "waiting"));
+    }
+
+    @Test
+    void requestWaitingPastMaxQueueWaitFails() {
+        LlmScheduler scheduler = scheduler(1, 8, Duration.ofMillis(300));
+        scheduler.submit(LlmPriority.INTERACTIVE, "u", task("blocker"));
+
+        CompletableFuture<String> waiting = scheduler.submit(LlmPriority.INTERACTIVE, "u", task("waiting"));
+
+        assertThatThrownBy(waiting::join).hasCauseInstanceOf(LlmOverloadedException.class);
+        assertThat(scheduler.getQueued()).isEqualTo(0);
+        finish("blocker");
+        assertThat(started).isEqualTo(List.of("blocker"));
+    }
+
+    private Supplier<CompletableFuture<String>> task(String name) {
+        return () -> {
+            started.add(name);
+            CompletableFuture<String> result = new CompletableFuture<>();
+            running.put(name, result);
+            return result;
+        };
+    }
+
+    /**
+     * Complete a running task; the scheduler starts the next waiting one on this thread
+     */
+    private void finish(String name) {
+        assertThat(running.containsKey(name)).isTrue();
+        running.remove(name).complete(name);
+    }
+
+    private static LlmScheduler scheduler(int maxConcurrency, int queueCapacity, Duration maxQueueWait) {
+        LlmBackendPool pool = new LlmBackendPool(
+                List.of(new LlmEndpoint("http://localhost:1/v1/chat/completions", 1, maxConcurrency)),
+                LlmBackendPool.Strategy.LEAST_OUTSTANDING,
+                new HttpClientUtil(Duration.ofSeconds(1), Duration.ofSeconds(1)), "/health", "/props",
+                Duration.ofSeconds(1), 2, new SimpleMeterRegistry());
+        return new LlmScheduler(maxConcurrency, queueCapacity, Duration.ofMillis(100), maxQueueWait,
+                pool, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,129 @@
+package com.pocketllm.llm;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenizerTest {
+
+    // Merges mix the "a b" and ["a", "b"] spellings; "aa a" only applies if "a a" is merged leftmost first
+    private static final String TOKENIZER_JSON = """
+            {"model": {"type": "BPE",
+              "vocab": {"▁": 0, "a": 1, "b": 2, "c": 3, "ab": 4, "abc": 5, "▁ab": 6, "bc": 7, "aa": 8, "aaa": 9},
+              "merges": ["a b", ["ab", "c"], "▁ ab", "b c", "a a", "aa a"]}}
+            """;
+    private static final List<String> MERGES = List.of("a b", "ab c", "▁ ab", "b c", "a a", "aa a");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void countsMatchKnownFixtures() throws IOException {
+        Tokenizer tokenizer = tokenizer();
+
+        Map<String, Integer> expected = Map.of(
+                "abc", 2,     // ▁ abc
+                "bc", 2,      // ▁ bc
+                "ab ab", 2,   // ▁ab ▁ab
+                "aaa", 2,     // ▁ aaa
+                "é", 3,       // ▁ plus two UTF-8 bytes
+                "  ", 3,      // ▁▁▁, nothing merges
+                "", 0);
+        expected.forEach((text, count) -> assertThat(tokenizer.countTokens(text)).isEqualTo(count));
+    }
+
+    @Test
+    void matchesNaiveMergeOnRandomText() throws IOException {
+        Tokenizer tokenizer = tokenizer();
+        Random random = new Random(42);
+        String alphabet = "aabbc é";
+
+        for (int i = 0; i < 500; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = 1 + random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertThat(tokenizer.countTokens(text.toString())).isEqualTo(naiveCount(text.toString()));
+        }
+    }
+
+    @Test
+    void longWordsAreChunkedAndNotCached() throws IOException {
+        Tokenizer tokenizer = tokenizer();
+        String word = "ab".repeat(5000);
+
+        // ▁ab then 4999 "ab"; chunk boundaries may split a few pairs
+        assertThat(tokenizer.countTokens(word)).isBetween(5000, 5050);
+        assertThat(tokenizer.countTokens("ab")).isEqualTo(1);
+
+        Cache<?, ?> wordCounts = (Cache<?, ?>) ReflectionTestUtils.getField(tokenizer, "wordCounts");
+        assertThat(wordCounts.estimatedSize()).isEqualTo(1);
+    }
+
+    @Test
+    void estimatesWithoutTokenizerFile() {
+        Tokenizer tokenizer = new Tokenizer("", 10);
+
+        assertThat(tokenizer.countTokens("12345678")).isEqualTo(3);
+    }
+
+    private Tokenizer tokenizer() throws IOException {
+        Path file = tempDir.resolve("tokenizer.json");
+        Files.writeString(file, TOKENIZER_JSON, StandardCharsets.UTF_8);
+        return new Tokenizer(file.toString(), 100);
+    }
+
+    /** The straightforward rescan-every-pair merge, over the whole text split into words the same way */
+    private static int naiveCount(String text) {
+        String normalized = "▁" + text.replace(' ', '▁');
+        List<String> words = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i < normalized.length(); i++) {
+            if (normalized.charAt(i) == '▁' && normalized.charAt(i - 1) != '▁') {
+                words.add(normalized.substring(start, i));
+                start = i;
+            }
+        }
+        words.add(normalized.substring(start));
+
+        List<String> vocab = List.of("▁", "a", "b", "c", "ab", "abc", "▁ab", "bc", "aa", "aaa");
+        int count = 0;
+        for (String word : words) {
+            List<String> symbols = new ArrayList<>();
+            word.codePoints().forEach(cp -> symbols.add(new String(Character.toChars(cp))));
+            while (true) {
+                int bestRank = Integer.MAX_VALUE;
+                int bestIndex = -1;
+                for (int i = 0; i < symbols.size() - 1; i++) {
+                    int rank = MERGES.indexOf(symbols.get(i) + " " + symbols.get(i + 1));
+                    if (rank >= 0 && rank < bestRank) {
+                        bestRank = rank;
+                        bestIndex = i;
+                    }
+                }
+                if (bestIndex < 0) {
+                    break;
+                }
+                symbols.set(bestIndex, symbols.get(bestIndex) + symbols.get(bestIndex + 1));
+                symbols.remove(bestIndex + 1);
+            }
+            for (String symbol : symbols) {
+                count += vocab.contains(symbol) ? 1 : symbol.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,42 @@
+package com.pocketllm.model.entity;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompressedTextConverterTest {
+
+    private static final String ANSWER = "Here is an example of a Java program that prints a greeting. "
+            + "You can use the following code:\n\n```java\npublic class Hello {\n"
+            + "    public static void main(String[] args) {\n        System.out.println(\"Hello, world!\");\n"
+            + "    }\n}\n```\n\nThis means that the program writes the text to standard output. "
+            + "Let me know if you have any other questions about Java or the JVM. Grüße ✓";
+
+    private final CompressedTextConverter converter = new CompressedTextConverter();
+
+    @Test
+    void largeTextIsCompressedAndRoundTrips() {
+        byte[] stored = converter.convertToDatabaseColumn(ANSWER);
+
+        assertThat(stored[0]).isEqualTo((byte) 0xFF);
+        assertThat(stored.length).isLessThan(ANSWER.getBytes(StandardCharsets.UTF_8).length * 3 / 4);
+        assertThat(converter.convertToEntityAttribute(stored)).isEqualTo(ANSWER);
+    }
+
+    @Test
+    void shortTextAndLegacyRowsStayPlainText() {
+        assertThat(converter.convertToDatabaseColumn("Hi there"))
+                .isEqualTo("Hi there".getBytes(StandardCharsets.UTF_8));
+        assertThat(converter.convertToEntityAttribute(ANSWER.getBytes(StandardCharsets.UTF_8))).isEqualTo(ANSWER);
+        assertThat(converter.convertToEntityAttribute(new byte[0])).isEmpty();
+    }
+
+    @Test
+    void textStartingLikeTheOldHeaderIsReadAsText() {
+        String text = "\u0000\u0001 control characters ahead of the text";
+        assertThat(converter.convertToEntityAttribute(text.getBytes(StandardCharsets.UTF_8))).isEqualTo(text);
+        assertThat(converter.convertToEntityAttribute(new byte[]{0, 7, 'x'})).isEqualTo("\u0000\u0007x");
+    }
+}
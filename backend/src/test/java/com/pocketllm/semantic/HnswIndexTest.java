@@ -0,0 +1,127 @@
+package com.pocketllm.semantic;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 64;
+    private static final int K = 10;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void recallAgainstBruteForceScan() {
+        List<float[]> vectors = clustered(5_000);
+        HnswIndex index = new HnswIndex(16, 100, 64);
+        for (int i = 0; i < vectors.size(); i++) {
+            index.add("q" + i, vectors.get(i));
+        }
+        List<float[]> queries = clustered(200);
+
+        int found = 0;
+        for (float[] query : queries) {
+            Set<String> approximate = index.search(query, K).stream()
+                    .map(HnswIndex.Match::getKey)
+                    .collect(Collectors.toSet());
+            approximate.retainAll(bruteForce(vectors, query));
+            found += approximate.size();
+        }
+
+        double recall = (double) found / (queries.size() * K);
+        assertThat(recall).isGreaterThan(0.9);
+    }
+
+    @Test
+    void removedAndClearedEntriesAreNotReturned() {
+        HnswIndex index = new HnswIndex(16, 100, 64);
+        List<float[]> vectors = clustered(100);
+        for (int i = 0; i < vectors.size(); i++) {
+            index.add("q" + i, vectors.get(i));
+        }
+
+        index.remove("q7");
+        assertThat(index.size()).isEqualTo(99);
+        assertThat(index.search(vectors.get(7), 1).get(0).getKey()).isNotEqualTo("q7");
+        assertThat(index.search(vectors.get(8), 1).get(0).getKey()).isEqualTo("q8");
+
+        index.clear();
+        assertThat(index.search(vectors.get(8), 1)).isEmpty();
+    }
+
+    @Test
+    void graphIsCompactedOnceRemovedEntriesPileUp() {
+        HnswIndex index = new HnswIndex(16, 100, 64);
+        List<float[]> vectors = clustered(1_000);
+        for (int i = 0; i < vectors.size(); i++) {
+            index.add("q" + i, vectors.get(i));
+        }
+        for (int i = 0; i < 600; i++) {
+            index.remove("q" + i);
+        }
+
+        assertThat(index.size()).isEqualTo(400);
+        assertThat(index.graphSize()).isLessThan(1_000);
+        assertThat(index.graphSize() - index.size()).isLessThan(index.graphSize() / 4 + 1);
+        for (int i = 600; i < vectors.size(); i += 50) {
+            assertThat(index.search(vectors.get(i), 1).get(0).getKey()).isEqualTo("q" + i);
+        }
+    }
+
+    private Set<String> bruteForce(List<float[]> vectors, float[] query) {
+        return IntStream.range(0, vectors.size())
+                .boxed()
+                .sorted(Comparator.comparingDouble(i -> -Embedder.dot(query, vectors.get(i))))
+                .limit(K)
+                .map(i -> "q" + i)
+                .collect(Collectors.toCollection(HashSet::new));
+    }
+
+    /**
+     * Unit vectors scattered around a few hundred centres, like paraphrases of common questions
+     */
+    private List<float[]> clustered(int count) {
+        Random centres = new Random(7);
+        List<float[]> centreVectors = new ArrayList<>();
+        for (int c = 0; c < 300; c++) {
+            centreVectors.add(gaussian(centres, 1));
+        }
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] centre = centreVectors.get(random.nextInt(centreVectors.size()));
+            float[] noise = gaussian(random, 0.15f);
+            float[] vector = new float[DIMENSIONS];
+            for (int d = 0; d < DIMENSIONS; d++) {
+                vector[d] = centre[d] + noise[d];
+            }
+            vectors.add(normalize(vector));
+        }
+        return vectors;
+    }
+
+    private static float[] gaussian(Random random, float scale) {
+        float[] vector = new float[DIMENSIONS];
+        for (int d = 0; d < DIMENSIONS; d++) {
+            vector[d] = (float) random.nextGaussian() * scale;
+        }
+        return scale == 1 ? normalize(vector) : vector;
+    }
+
+    private static float[] normalize(float[] vector) {
+        float norm = (float) Math.sqrt(Embedder.dot(vector, vector));
+        for (int d = 0; d < vector.length; d++) {
+            vector[d] /= norm;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,122 @@
+package com.pocketllm.service;
+
+import com.pocketllm.model.entity.ChatHistory;
+import com.pocketllm.repository.ChatHistoryRepository;
+import com.pocketllm.repository.ChatStatsRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// A long flush interval keeps appended messages pending long enough to observe them
+@SpringBootTest(properties = {
+        "content-dedup.enabled=false",
+        "chat-stats.backfill.enabled=false",
+        "chat-history.writer.batch-size=4",
+        "chat-history.writer.flush-interval=500ms"
+})
+class ChatHistoryWriterTest {
+
+    @TempDir
+    static Path dir;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> "jdbc:sqlite:" + dir.resolve("history.db"));
+    }
+
+    @Autowired
+    private ChatHistoryWriter historyWriter;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private ChatHistoryRepository chatHistoryRepository;
+
+    @Autowired
+    private ChatStatsRepository chatStatsRepository;
+
+    @Test
+    void messagesAreStoredInTheOrderTheyWereAppended() {
+        String chatId = chatService.createChat("user-1", "ordering").getChatId();
+        LocalDateTime timestamp = LocalDateTime.now();
+
+        // Ten messages span three batches of at most four
+        List<CompletableFuture<ChatHistory>> committed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            committed.add(historyWriter.append(message(chatId, "message " + i, timestamp)));
+        }
+
+        long previousId = 0;
+        for (int i = 0; i < committed.size(); i++) {
+            ChatHistory stored = committed.get(i).join();
+            assertThat(stored.getContent()).isEqualTo("message " + i);
+            assertThat(stored.getId()).isGreaterThan(previousId);
+            previousId = stored.getId();
+        }
+        assertThat(chatStatsRepository.findById(chatId).orElseThrow().getMessageCount()).isEqualTo(10);
+    }
+
+    @Test
+    void pendingMessagesAreMergedIntoReadsExactlyOnce() {
+        String chatId = chatService.createChat("user-1", "read your writes").getChatId();
+        historyWriter.append(message(chatId, "first", LocalDateTime.now())).join();
+
+        CompletableFuture<ChatHistory> second = historyWriter.append(message(chatId, "second", LocalDateTime.now()));
+        CompletableFuture<ChatHistory> third = historyWriter.append(message(chatId, "third", LocalDateTime.now()));
+
+        assertThat(second).isNotDone();
+        assertThat(contents(historyWriter.withPending(chatId,
+                () -> chatHistoryRepository.findByChatIdOrderByTimestampAsc(chatId))))
+                .isEqualTo(List.of("first", "second", "third"));
+
+        second.join();
+        third.join();
+        assertThat(contents(historyWriter.withPending(chatId,
+                () -> chatHistoryRepository.findByChatIdOrderByTimestampAsc(chatId))))
+                .isEqualTo(List.of("first", "second", "third"));
+    }
+
+    @Test
+    void messagesForADeletedChatAreDropped() {
+        String chatId = chatService.createChat("user-1", "deleted").getChatId();
+        CompletableFuture<ChatHistory> kept = historyWriter.append(message(chatId, "kept", LocalDateTime.now()));
+        chatService.deleteChat("user-1", chatId);
+
+        // Queued after the delete, as an answer still being generated would be
+        CompletableFuture<ChatHistory> late = historyWriter.append(message(chatId, "late", LocalDateTime.now()));
+
+        assertThat(kept.join().getContent()).isEqualTo("kept");
+        assertThatThrownBy(late::join).hasCauseInstanceOf(IllegalArgumentException.class);
+        assertThat(chatHistoryRepository.findByChatIdOrderByTimestampAsc(chatId)).isEmpty();
+        assertThat(chatStatsRepository.findById(chatId)).isEmpty();
+    }
+
+    private static ChatHistory message(String chatId, String content, LocalDateTime timestamp) {
+        return ChatHistory.builder()
+                .chatId(chatId)
+                .content(content)
+                .contentLength(content.length())
+                .fromUser(true)
+                .timestamp(timestamp)
+                .tokenCount(1)
+                .fromCache(false)
+                .build();
+    }
+
+    private static List<String> contents(List<ChatHistory> messages) {
+        return messages.stream().map(ChatHistory::getContent).toList();
+    }
+}